@@ -1,20 +1,13 @@
 package com.cursodsousa.libraryapi;
 
-import org.modelmapper.ModelMapper;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableScheduling
 public class LibraryApiApplication {
 
-    @Bean
-    public ModelMapper modelMapper() { // Cria um instância Singleton de ModelMapper para servir toda aplicação.
-        return new ModelMapper();
-    }
-
     public static void main(String[] args) {
         SpringApplication.run(LibraryApiApplication.class, args);
     }
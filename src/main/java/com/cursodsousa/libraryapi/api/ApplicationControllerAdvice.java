@@ -4,6 +4,7 @@ import com.cursodsousa.libraryapi.api.exception.ApiErros;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -27,6 +28,11 @@ public class ApplicationControllerAdvice {
         return new ApiErros(ex);
     }
 
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    public ResponseEntity handleOptimisticLockingFailure(ObjectOptimisticLockingFailureException ex){ //Outra requisição mudou a versão antes.
+        return handleResponseStatusException(new ResponseStatusException(HttpStatus.CONFLICT, "Resource was modified concurrently"));
+    }
+
     @ExceptionHandler(ResponseStatusException.class)
     public ResponseEntity handleResponseStatusException(ResponseStatusException ex ){
         return new ResponseEntity(new ApiErros(ex), ex.getStatus());
@@ -0,0 +1,9 @@
+package com.cursodsousa.libraryapi.api;
+
+public final class MediaTypes {
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson"; //Um objeto JSON por linha.
+
+    private MediaTypes() {
+    }
+}
@@ -0,0 +1,29 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookBatchResultDTO {
+
+    public enum Status { CREATED, REJECTED }
+
+    private int index;
+    private String isbn;
+    private Long id;
+    private Status status;
+    private String error;
+
+    public static BookBatchResultDTO created(int index, String isbn, Long id) {
+        return new BookBatchResultDTO(index, isbn, id, Status.CREATED, null);
+    }
+
+    public static BookBatchResultDTO rejected(int index, String isbn, String error) {
+        return new BookBatchResultDTO(index, isbn, null, Status.REJECTED, error);
+    }
+}
@@ -1,7 +1,9 @@
 package com.cursodsousa.libraryapi.api.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 
 @Data
@@ -21,4 +23,10 @@ public class BookDTO {
     @NotEmpty
     private String isbn;
 
+    private Boolean available; //Só leitura: ignorado no cadastro e na atualização.
+
+    @Min(0)
+    @JsonInclude(JsonInclude.Include.NON_NULL) //Só aparece nos livros com prazo próprio.
+    private Integer loanDays; //Prazo dos empréstimos do livro em dias; nulo usa o padrão.
+
 }
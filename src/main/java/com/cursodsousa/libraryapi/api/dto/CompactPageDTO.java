@@ -0,0 +1,28 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Page;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CompactPageDTO<T> { //Página do ?view=compact: só o conteúdo e a posição, sem o pageable/sort do Page do Spring.
+
+    private List<T> content;
+    private int page;
+    private int size;
+    private long totalElements;
+
+    public static <E, T> CompactPageDTO<T> of(Page<E> page, Function<E, T> mapper) {
+        List<T> content = page.getContent().stream().map(mapper).collect(Collectors.toList());
+        return new CompactPageDTO<>(content, page.getNumber(), page.getSize(), page.getTotalElements());
+    }
+}
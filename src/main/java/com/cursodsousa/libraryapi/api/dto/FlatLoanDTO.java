@@ -0,0 +1,25 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FlatLoanDTO { //Empréstimo sem o livro aninhado, apenas com a referência a ele.
+
+    private Long id;
+    private String customer;
+    private String email;
+    private LocalDate loanDate;
+    private LocalDate dueDate;
+    private Boolean returned;
+    private Long bookId;
+    private String isbn;
+
+}
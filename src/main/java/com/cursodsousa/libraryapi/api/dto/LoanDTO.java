@@ -7,6 +7,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import javax.validation.constraints.NotEmpty;
+import java.time.LocalDate;
 
 @Data
 @Builder
@@ -21,5 +22,7 @@ public class LoanDTO {
     private String customer;
     @NotEmpty
     private String email;
+    private Long customerId; //GET /api/customers/{customerId}/loans
+    private LocalDate dueDate; //Só leitura: calculado pelo prazo do cliente ou do livro.
     private BookDTO book;
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReturnLoanResultDTO {
+
+    public enum Status { RETURNED, ALREADY_RETURNED, NOT_FOUND }
+
+    private Long id;
+    private String isbn;
+    private Status status;
+
+    public static ReturnLoanResultDTO ofId(Long id, Status status) {
+        return new ReturnLoanResultDTO(id, null, status);
+    }
+
+    public static ReturnLoanResultDTO ofIsbn(String isbn, Long id, Status status) {
+        return new ReturnLoanResultDTO(id, isbn, status);
+    }
+}
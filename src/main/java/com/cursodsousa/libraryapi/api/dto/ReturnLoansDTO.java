@@ -0,0 +1,18 @@
+package com.cursodsousa.libraryapi.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReturnLoansDTO { //Devolução em lote: ids de empréstimo e/ou isbns dos livros devolvidos.
+
+    private List<Long> ids;
+    private List<String> isbns;
+}
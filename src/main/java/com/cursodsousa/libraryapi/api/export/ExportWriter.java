@@ -0,0 +1,82 @@
+package com.cursodsousa.libraryapi.api.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Escreve cada linha direto no output stream da resposta, sem acumular a exportação em memória.
+ */
+public class ExportWriter<T> {
+
+    private final ExportFormat format;
+    private final Writer writer;
+    private final ObjectMapper objectMapper;
+    private final Function<T, List<Object>> columns;
+
+    private ExportWriter(ExportFormat format, Writer writer, ObjectMapper objectMapper, Function<T, List<Object>> columns) {
+        this.format = format;
+        this.writer = writer;
+        this.objectMapper = objectMapper;
+        this.columns = columns;
+    }
+
+    public static <T> ExportWriter<T> open(HttpServletResponse response,
+                                           ExportFormat format,
+                                           String name,
+                                           ObjectMapper objectMapper,
+                                           List<String> header,
+                                           Function<T, List<Object>> columns) throws IOException {
+        response.setContentType(format.getContentType());
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + name + "." + format.getExtension() + "\"");
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        ExportWriter<T> exportWriter = new ExportWriter<>(format, writer, objectMapper, columns);
+        if (format == ExportFormat.CSV) {
+            exportWriter.writeLine(header.stream().map(ExportWriter::csv).collect(Collectors.joining(",")));
+        }
+        return exportWriter;
+    }
+
+    public void write(T row) {
+        try {
+            if (format == ExportFormat.NDJSON) {
+                writeLine(objectMapper.writeValueAsString(row));
+            } else {
+                writeLine(columns.apply(row).stream().map(ExportWriter::csv).collect(Collectors.joining(",")));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); //Cliente desconectou: interrompe o cursor do banco.
+        }
+    }
+
+    public void finish() throws IOException {
+        writer.flush();
+    }
+
+    private void writeLine(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+    }
+
+    private static String csv(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.contains(",") || text.contains("\"") || text.contains("\n") || text.contains("\r")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
+}
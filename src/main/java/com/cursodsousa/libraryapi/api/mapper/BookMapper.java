@@ -0,0 +1,52 @@
+package com.cursodsousa.libraryapi.api.mapper;
+
+import com.cursodsousa.libraryapi.api.dto.BookBatchResultDTO;
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.service.BookBatchResult;
+import org.springframework.stereotype.Component;
+
+@Component
+public class BookMapper { //Conversão explícita, sem reflexão, usada nas listagens.
+
+    public BookDTO toDto(Book book) {
+        if (book == null) {
+            return null;
+        }
+        return BookDTO.builder()
+                .id(book.getId())
+                .title(book.getTitle())
+                .author(book.getAuthor())
+                .isbn(book.getIsbn())
+                .available(book.getAvailable())
+                .loanDays(book.getLoanDays())
+                .build();
+    }
+
+    public Book toEntity(BookDTO dto) {
+        if (dto == null) {
+            return null;
+        }
+        return Book.builder()
+                .id(dto.getId())
+                .title(dto.getTitle())
+                .author(dto.getAuthor())
+                .isbn(dto.getIsbn())
+                .available(dto.getAvailable()) //Filtro das listagens; o cadastro sempre começa disponível.
+                .loanDays(dto.getLoanDays())
+                .build();
+    }
+
+    public BookBatchResultDTO toResultDto(BookBatchResult result) {
+        if (result == null) {
+            return null;
+        }
+        return BookBatchResultDTO.builder()
+                .index(result.getIndex())
+                .isbn(result.getIsbn())
+                .id(result.getId())
+                .status(BookBatchResultDTO.Status.valueOf(result.getStatus().name()))
+                .error(result.getError())
+                .build();
+    }
+}
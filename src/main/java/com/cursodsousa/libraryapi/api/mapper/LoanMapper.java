@@ -0,0 +1,61 @@
+package com.cursodsousa.libraryapi.api.mapper;
+
+import com.cursodsousa.libraryapi.api.dto.FlatLoanDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.dto.ReturnLoanResultDTO;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.service.ReturnLoanResult;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class LoanMapper {
+
+    private final BookMapper bookMapper;
+
+    public LoanDTO toDto(Loan loan) {
+        if (loan == null) {
+            return null;
+        }
+        Book book = loan.getBook();
+        return LoanDTO.builder()
+                .id(loan.getId())
+                .isbn(book == null ? null : book.getIsbn())
+                .customer(loan.getCustomer())
+                .email(loan.getCustomerEmail())
+                .customerId(loan.getBorrower() == null ? null : loan.getBorrower().getId())
+                .dueDate(loan.getDueDate())
+                .book(bookMapper.toDto(book))
+                .build();
+    }
+
+    public FlatLoanDTO toFlatDto(Loan loan) {
+        if (loan == null) {
+            return null;
+        }
+        Book book = loan.getBook();
+        return FlatLoanDTO.builder()
+                .id(loan.getId())
+                .customer(loan.getCustomer())
+                .email(loan.getCustomerEmail())
+                .loanDate(loan.getLoanDate())
+                .dueDate(loan.getDueDate())
+                .returned(loan.getReturned())
+                .bookId(book == null ? null : book.getId())
+                .isbn(book == null ? null : book.getIsbn())
+                .build();
+    }
+
+    public ReturnLoanResultDTO toResultDto(ReturnLoanResult result) {
+        if (result == null) {
+            return null;
+        }
+        return ReturnLoanResultDTO.builder()
+                .id(result.getId())
+                .isbn(result.getIsbn())
+                .status(ReturnLoanResultDTO.Status.valueOf(result.getStatus().name()))
+                .build();
+    }
+}
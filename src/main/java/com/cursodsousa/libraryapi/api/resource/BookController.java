@@ -1,28 +1,55 @@
 package com.cursodsousa.libraryapi.api.resource;
 
+import com.cursodsousa.libraryapi.api.MediaTypes;
+import com.cursodsousa.libraryapi.api.dto.BookBatchResultDTO;
 import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.CompactPageDTO;
+import com.cursodsousa.libraryapi.api.dto.CursorPageDTO;
+import com.cursodsousa.libraryapi.api.dto.FlatLoanDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.export.ExportFormat;
+import com.cursodsousa.libraryapi.api.export.ExportWriter;
+import com.cursodsousa.libraryapi.api.mapper.BookMapper;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.service.BookBatchResult;
 import com.cursodsousa.libraryapi.service.BookService;
 import com.cursodsousa.libraryapi.service.LoanService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.modelmapper.ModelMapper;
-
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @RestController
@@ -33,26 +60,76 @@ import java.util.stream.Collectors;
 public class BookController {
 
     private final BookService service;
-    private final ModelMapper modelMapper;
+    private final BookMapper bookMapper;
+    private final LoanMapper loanMapper;
     private final LoanService loanService;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final ConditionalGet conditionalGet;
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     @ApiOperation("Create a book")
     public BookDTO create(@RequestBody @Valid BookDTO dto) {
         log.info(" creating a book for isbn: {} ", dto.getIsbn());
-        Book entity = modelMapper.map(dto, Book.class);
+        Book entity = bookMapper.toEntity(dto);
         entity = service.save(entity);
-        return modelMapper.map(entity, BookDTO.class);
+        return bookMapper.toDto(entity);
+    }
+
+    @PostMapping(value = "batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ApiOperation("Create books in batch")
+    public List<BookBatchResultDTO> createBatch(@RequestBody List<BookDTO> dtos) {
+        log.info(" creating {} books in batch ", dtos.size());
+        return saveBatch(dtos, 0);
+    }
+
+    @PostMapping(value = "batch", consumes = MediaTypes.APPLICATION_NDJSON_VALUE)
+    @ApiOperation("Create books in batch from a NDJSON stream")
+    public void createBatchStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        log.info(" creating books in batch from NDJSON stream ");
+        response.setContentType(MediaTypes.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter writer = response.getWriter();
+        List<BookDTO> chunk = new ArrayList<>(BookService.SAVE_ALL_CHUNK_SIZE);
+        int offset = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            chunk.add(readBookLine(line));
+            if (chunk.size() == BookService.SAVE_ALL_CHUNK_SIZE) { //Persiste e responde bloco a bloco, sem manter o arquivo todo em memória.
+                writeResults(writer, saveBatch(chunk, offset));
+                offset += chunk.size();
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeResults(writer, saveBatch(chunk, offset));
+        }
+    }
+
+    @GetMapping("export")
+    @ApiOperation("Exports the whole catalog as NDJSON or CSV")
+    public void export(@RequestParam(defaultValue = "ndjson") String format, HttpServletResponse response) throws IOException {
+        log.info(" exporting books as {} ", format);
+        ExportWriter<BookDTO> writer = ExportWriter.open(response, ExportFormat.of(format), "books", objectMapper,
+                Arrays.asList("id", "title", "author", "isbn"),
+                dto -> Arrays.asList(dto.getId(), dto.getTitle(), dto.getAuthor(), dto.getIsbn()));
+        service.forEachBook(book -> writer.write(bookMapper.toDto(book)));
+        writer.finish();
     }
 
     @GetMapping("{id}")
     @ApiOperation("Get a book details by id")
-    public BookDTO get(@PathVariable Long id) {
+    public ResponseEntity<BookDTO> get(@PathVariable Long id, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         log.info(" obtaining details for book id: {} ", id);
         return service
                 .getById(id)
-                .map( book -> modelMapper.map(book, BookDTO.class)  )
+                .map(book -> conditionalGet.books(ifNoneMatch, ConditionalGet.bookTag(book), () -> bookMapper.toDto(book)))
                 .orElseThrow( () -> new ResponseStatusException(HttpStatus.NOT_FOUND) );
     }
 
@@ -72,45 +149,144 @@ public class BookController {
 
     @PutMapping("{id}")
     @ApiOperation("Updates a book")
-    public BookDTO update(@PathVariable Long id, @RequestBody @Valid BookDTO dto) {
+    public ResponseEntity<BookDTO> update(@PathVariable Long id, @RequestBody @Valid BookDTO dto, @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         log.info(" updating book of id: {} ", id);
-        return service.getById(id).map(book -> {
-
-            book.setAuthor(dto.getAuthor());
-            book.setTitle(dto.getTitle());
-            book = service.update(book);
-            return modelMapper.map(book, BookDTO.class);
-
-        }).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        //If-Match: o ETag que o cliente leu no GET precisa ser o atual. Os ETags daqui são fracos, então a comparação também.
+        if (ifMatch != null && !ConditionalGet.matches(ifMatch, ConditionalGet.bookTag(book))) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED);
+        }
+        Book changes = Book.builder()
+                .id(id)
+                .isbn(book.getIsbn())
+                .author(dto.getAuthor())
+                .title(dto.getTitle())
+                .loanDays(dto.getLoanDays()) //Vale para os próximos empréstimos; os ativos mantêm o dueDate.
+                .version(ifMatch == null ? null : book.getVersion()) //Com If-Match o update confere a versão no banco.
+                .build();
+        try {
+            Book updatedBook = service.update(changes);
+            return ResponseEntity.ok().eTag(ConditionalGet.bookTag(updatedBook)).body(bookMapper.toDto(updatedBook));
+        } catch (ObjectOptimisticLockingFailureException e) { //O livro do cache já era antigo: mudou antes deste PUT.
+            if (ifMatch != null) {
+                throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED);
+            }
+            throw e;
+        }
     }
 
     @GetMapping
     @ApiOperation("Lists books by params")
-    public Page<BookDTO> find(BookDTO dto, Pageable pageRequest) {
-        Book filter = modelMapper.map(dto, Book.class);
+    public ResponseEntity<Page<BookDTO>> find(BookDTO dto, Pageable pageRequest, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Book filter = bookMapper.toEntity(dto);
         Page<Book> result = service.find(filter, pageRequest);
-        List<BookDTO> list = result.getContent()
-                .stream()
-                .map(entity -> modelMapper.map(entity, BookDTO.class))
-                .collect(Collectors.toList());
+        return conditionalGet.books(ifNoneMatch, ConditionalGet.booksTag(result), () -> toBookPage(result, pageRequest));
+    }
 
-        return new PageImpl<BookDTO>(list, pageRequest, result.getTotalElements());
+    @GetMapping(params = {"view=compact", "!after"})
+    @ApiOperation("Lists books by params in the compact page format")
+    public ResponseEntity<CompactPageDTO<BookDTO>> findCompact(BookDTO dto, Pageable pageRequest, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Page<Book> result = service.find(bookMapper.toEntity(dto), pageRequest);
+        return conditionalGet.books(ifNoneMatch, ConditionalGet.booksTag(result), () -> CompactPageDTO.of(result, bookMapper::toDto));
+    }
+
+    @GetMapping("search")
+    @ApiOperation("Searches books by title and author, ranked by relevance (prefix and typo tolerant)")
+    public ResponseEntity<Page<BookDTO>> search(@RequestParam String q, Pageable pageRequest, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        if (q.trim().isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Search query is required");
+        }
+        Page<Book> result = service.search(q, pageRequest);
+        return conditionalGet.books(ifNoneMatch, ConditionalGet.booksTag(result), () -> toBookPage(result, pageRequest));
+    }
+
+    @GetMapping(params = "after")
+    @ApiOperation("Lists books by params using cursor pagination (no total count)")
+    public ResponseEntity<CursorPageDTO<BookDTO>> findAfter(BookDTO dto, @RequestParam String after, @RequestParam(defaultValue = "20") int size, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Book filter = bookMapper.toEntity(dto);
+        Slice<Book> result = service.findAfter(filter, CursorCodec.decode(after), CursorCodec.checkSize(size));
+        return conditionalGet.books(ifNoneMatch, ConditionalGet.booksTag(result), () -> CursorCodec.toPage(result, bookMapper::toDto, Book::getId));
     }
+
     @GetMapping("{id}/loans")
-    public Page<LoanDTO> loansByBook(@PathVariable Long id, Pageable pageable) {
+    @ApiOperation("Lists the loans of a book")
+    public ResponseEntity<Page<LoanDTO>> loansByBook(@PathVariable Long id, Pageable pageable, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        Page<Loan> result = loanService.getLoansByBook(book, pageable);
+        return conditionalGet.loans(ifNoneMatch, ConditionalGet.loansTag(result), () -> {
+            List<LoanDTO> list = result.getContent()
+                    .stream()
+                    .map(loanMapper::toDto)
+                    .collect(Collectors.toList());
+            return new PageImpl<LoanDTO>(list, pageable, result.getTotalElements());
+        });
+    }
 
+    @GetMapping(value = "{id}/loans", params = "view=compact")
+    @ApiOperation("Lists the loans of a book without repeating the book on each loan")
+    public ResponseEntity<CompactPageDTO<FlatLoanDTO>> loansByBookCompact(@PathVariable Long id, Pageable pageable, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
         Page<Loan> result = loanService.getLoansByBook(book, pageable);
-        List<LoanDTO> list = result.getContent()
+        return conditionalGet.loans(ifNoneMatch, ConditionalGet.loansTag(result), () -> CompactPageDTO.of(result, loanMapper::toFlatDto));
+    }
+
+    private Page<BookDTO> toBookPage(Page<Book> result, Pageable pageRequest) {
+        List<BookDTO> list = result.getContent()
                 .stream()
-                .map(loan -> {
-                    Book loanBook = loan.getBook();
-                    BookDTO bookDTO = modelMapper.map(loanBook, BookDTO.class);
-                    LoanDTO loanDTO = modelMapper.map(loan, LoanDTO.class);
-                    loanDTO.setBook(bookDTO);
-                    return loanDTO;
-                }).collect(Collectors.toList());
-        return new PageImpl<LoanDTO>(list, pageable, result.getTotalElements());
+                .map(bookMapper::toDto)
+                .collect(Collectors.toList());
+
+        return new PageImpl<BookDTO>(list, pageRequest, result.getTotalElements());
+    }
+
+    private List<BookBatchResultDTO> saveBatch(List<BookDTO> dtos, int offset) {
+        BookBatchResultDTO[] results = new BookBatchResultDTO[dtos.size()];
+        List<Book> books = new ArrayList<>(dtos.size());
+        List<Integer> positions = new ArrayList<>(dtos.size());
+
+        for (int i = 0; i < dtos.size(); i++) {
+            BookDTO dto = dtos.get(i);
+            if (dto == null) {
+                results[i] = BookBatchResultDTO.rejected(offset + i, null, "Linha JSON inválida.");
+                continue;
+            }
+            Set<ConstraintViolation<BookDTO>> violations = validator.validate(dto);
+            if (!violations.isEmpty()) {
+                String error = violations.stream()
+                        .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                        .sorted()
+                        .collect(Collectors.joining(", "));
+                results[i] = BookBatchResultDTO.rejected(offset + i, dto.getIsbn(), error);
+                continue;
+            }
+            books.add(bookMapper.toEntity(dto));
+            positions.add(i);
+        }
+
+        List<BookBatchResult> saved = service.saveAll(books);
+        for (int j = 0; j < saved.size(); j++) { //Devolve cada resultado para a posição original da requisição.
+            int position = positions.get(j);
+            BookBatchResultDTO result = bookMapper.toResultDto(saved.get(j));
+            result.setIndex(offset + position);
+            results[position] = result;
+        }
+        return Arrays.asList(results);
+    }
+
+    private BookDTO readBookLine(String line) {
+        try {
+            return objectMapper.readValue(line, BookDTO.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private void writeResults(PrintWriter writer, List<BookBatchResultDTO> results) throws IOException {
+        for (BookBatchResultDTO result : results) {
+            writer.write(objectMapper.writeValueAsString(result));
+            writer.write('\n');
+        }
+        writer.flush();
     }
 
-}
\ No newline at end of file
+}
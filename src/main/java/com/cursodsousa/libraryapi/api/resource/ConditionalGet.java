@@ -0,0 +1,128 @@
+package com.cursodsousa.libraryapi.api.resource;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * GET condicional dos livros e empréstimos. O ETag (fraco) vem dos ids e versões (@Version) das entidades
+ * e da disponibilidade dos livros, que fica fora do @Version, então um If-None-Match que bate é respondido
+ * com 304 antes de converter qualquer entidade em DTO.
+ * O Cache-Control de cada recurso fica em application.web.cache-control.*.
+ */
+@Component
+public class ConditionalGet {
+
+    private final CacheControl books;
+    private final CacheControl loans;
+
+    public ConditionalGet(@Value("${application.web.cache-control.books.max-age:0s}") Duration booksMaxAge,
+                          @Value("${application.web.cache-control.loans.max-age:0s}") Duration loansMaxAge,
+                          @Value("${application.web.cache-control.private:true}") boolean privateCache) {
+        this.books = cacheControl(booksMaxAge, privateCache);
+        this.loans = cacheControl(loansMaxAge, privateCache);
+    }
+
+    public <T> ResponseEntity<T> books(String ifNoneMatch, String etag, Supplier<T> body) {
+        return respond(ifNoneMatch, etag, books, body);
+    }
+
+    public <T> ResponseEntity<T> loans(String ifNoneMatch, String etag, Supplier<T> body) {
+        return respond(ifNoneMatch, etag, loans, body);
+    }
+
+    public static String bookTag(Book book) {
+        return new Tag().add(book.getId()).add(book.getVersion()).add(availability(book)).toString();
+    }
+
+    public static String booksTag(Slice<Book> books) {
+        Tag tag = sliceTag(books);
+        books.forEach(book -> tag.add(book.getId()).add(book.getVersion()).add(availability(book)));
+        return tag.toString();
+    }
+
+    public static String loansTag(Slice<Loan> loans) { //O DTO do empréstimo leva o livro, então a versão dele também conta.
+        Tag tag = sliceTag(loans);
+        loans.forEach(loan -> {
+            Book book = loan.getBook();
+            tag.add(loan.getId()).add(loan.getVersion())
+                    .add(book == null ? null : book.getId()).add(book == null ? null : book.getVersion()).add(availability(book));
+        });
+        return tag.toString();
+    }
+
+    private static Long availability(Book book) {
+        return book == null || book.getAvailable() == null ? null : book.getAvailable() ? 1L : 0L;
+    }
+
+    static boolean matches(String ifNoneMatch, String etag) { //Comparação fraca (RFC 7232), como pede o If-None-Match.
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || opaque(value).equals(opaque(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <T> ResponseEntity<T> respond(String ifNoneMatch, String etag, CacheControl cacheControl, Supplier<T> body) {
+        //Vary: o mesmo recurso sai em JSON, CBOR ou Smile conforme o Accept.
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).varyBy(HttpHeaders.ACCEPT).build();
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(cacheControl).varyBy(HttpHeaders.ACCEPT).body(body.get());
+    }
+
+    private static Tag sliceTag(Slice<?> slice) {
+        Tag tag = new Tag().add((long) slice.getNumber()).add((long) slice.getSize()).add(slice.hasNext() ? 1L : 0L);
+        if (slice instanceof Page) {
+            tag.add(((Page<?>) slice).getTotalElements());
+        }
+        return tag;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static CacheControl cacheControl(Duration maxAge, boolean privateCache) {
+        //Sem max-age o cliente guarda a resposta mas revalida sempre com o ETag.
+        CacheControl cacheControl = maxAge.isZero()
+                ? CacheControl.noCache()
+                : CacheControl.maxAge(maxAge.getSeconds(), TimeUnit.SECONDS).mustRevalidate();
+        return privateCache ? cacheControl.cachePrivate() : cacheControl.cachePublic();
+    }
+
+    private static final class Tag { //FNV-1a de 64 bits sobre os valores, sem alocar nada por elemento.
+
+        private long hash = 0xcbf29ce484222325L;
+
+        Tag add(Long value) {
+            long bits = value == null ? -1L : value;
+            for (int i = 0; i < 8; i++) {
+                hash ^= (bits >>> (i * 8)) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "W/\"" + Long.toHexString(hash) + "\"";
+        }
+    }
+}
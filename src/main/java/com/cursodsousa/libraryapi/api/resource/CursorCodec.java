@@ -0,0 +1,53 @@
+package com.cursodsousa.libraryapi.api.resource;
+
+import com.cursodsousa.libraryapi.api.dto.CursorPageDTO;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Converte o último id lido em um cursor opaco (?after=...) e vice-versa.
+ */
+public final class CursorCodec {
+
+    private CursorCodec() {
+    }
+
+    public static String encode(Long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Long decode(String cursor) { //Cursor vazio significa primeira página.
+        if (cursor == null || cursor.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+        }
+    }
+
+    public static int checkSize(int size) {
+        if (size < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid page size");
+        }
+        return size;
+    }
+
+    public static <E, T> CursorPageDTO<T> toPage(Slice<E> slice, Function<E, T> mapper, Function<E, Long> idOf) {
+        List<E> content = slice.getContent();
+        List<T> dtos = content.stream().map(mapper).collect(Collectors.toList());
+        String nextCursor = slice.hasNext() && !content.isEmpty()
+                ? encode(idOf.apply(content.get(content.size() - 1)))
+                : null;
+        return new CursorPageDTO<>(dtos, slice.getSize(), slice.hasNext(), nextCursor);
+    }
+}
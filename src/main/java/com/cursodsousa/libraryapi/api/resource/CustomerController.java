@@ -0,0 +1,41 @@
+package com.cursodsousa.libraryapi.api.resource;
+
+import com.cursodsousa.libraryapi.api.dto.CursorPageDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
+import com.cursodsousa.libraryapi.model.entity.Customer;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.service.CustomerService;
+import com.cursodsousa.libraryapi.service.LoanService;
+import io.swagger.annotations.Api;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+@RestController
+@RequestMapping("/api/customers")
+@RequiredArgsConstructor
+@Api("Customer API")
+public class CustomerController {
+
+    private final CustomerService service;
+    private final LoanService loanService;
+    private final LoanMapper loanMapper;
+    private final ConditionalGet conditionalGet;
+
+    @GetMapping("{id}/loans")
+    public ResponseEntity<CursorPageDTO<LoanDTO>> loansByCustomer(@PathVariable Long id,
+                                                                  @RequestParam(required = false) String after,
+                                                                  @RequestParam(defaultValue = "20") int size,
+                                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        //Histórico do cliente por cursor: percorre o índice (customer_id, id) sem offset nem contagem.
+        Customer customer = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        Slice<Loan> result = loanService.getLoansByCustomer(customer, CursorCodec.decode(after), CursorCodec.checkSize(size));
+        return conditionalGet.loans(ifNoneMatch, ConditionalGet.loansTag(result),
+                () -> CursorCodec.toPage(result, loanMapper::toDto, Loan::getId));
+    }
+}
@@ -1,25 +1,38 @@
 package com.cursodsousa.libraryapi.api.resource;
 
-import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.CompactPageDTO;
+import com.cursodsousa.libraryapi.api.dto.CursorPageDTO;
+import com.cursodsousa.libraryapi.api.dto.FlatLoanDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.api.dto.ReturnLoanResultDTO;
+import com.cursodsousa.libraryapi.api.dto.ReturnLoansDTO;
 import com.cursodsousa.libraryapi.api.dto.ReturnedLoanDTO;
+import com.cursodsousa.libraryapi.api.export.ExportFormat;
+import com.cursodsousa.libraryapi.api.export.ExportWriter;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
 import com.cursodsousa.libraryapi.service.BookService;
 import com.cursodsousa.libraryapi.service.LoanService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.modelmapper.ModelMapper;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -32,7 +45,9 @@ public class LoanController {
 
     private final LoanService service;
     private final BookService bookService;
-    private final ModelMapper modelMapper;
+    private final LoanMapper loanMapper;
+    private final ObjectMapper objectMapper;
+    private final ConditionalGet conditionalGet;
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
@@ -44,6 +59,7 @@ public class LoanController {
         Loan entity = Loan.builder()
                 .book(book)
                 .customer(dto.getCustomer())
+                .customerEmail(dto.getEmail())
                 .loanDate(LocalDate.now())
                 .build();
 
@@ -60,21 +76,53 @@ public class LoanController {
         service.update(loan);
     }
 
+    @PatchMapping("returned")
+    public List<ReturnLoanResultDTO> returnBooks(@RequestBody ReturnLoansDTO dto) {
+        boolean noIds = dto.getIds() == null || dto.getIds().isEmpty();
+        boolean noIsbns = dto.getIsbns() == null || dto.getIsbns().isEmpty();
+        if (noIds && noIsbns) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Loan ids or isbns are required");
+        }
+        log.info(" returning loans in batch: {} ids, {} isbns ", noIds ? 0 : dto.getIds().size(), noIsbns ? 0 : dto.getIsbns().size());
+        return service.returnLoans(dto.getIds(), dto.getIsbns())
+                .stream()
+                .map(loanMapper::toResultDto)
+                .collect(Collectors.toList());
+    }
+
     @GetMapping
-    public Page<LoanDTO> find(LoanFilterDTO dto, Pageable pageRequest) {
+    public ResponseEntity<Page<LoanDTO>> find(LoanFilterDTO dto, Pageable pageRequest, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         Page<Loan> result = service.find(dto, pageRequest);
-        List<LoanDTO> loans = result
-                .getContent()
-                .stream()
-                .map(entity -> {
+        return conditionalGet.loans(ifNoneMatch, ConditionalGet.loansTag(result), () -> {
+            List<LoanDTO> loans = result
+                    .getContent()
+                    .stream()
+                    .map(loanMapper::toDto)
+                    .collect(Collectors.toList());
+            return new PageImpl<LoanDTO>(loans, pageRequest, result.getTotalElements());
+        });
+    }
+
+    @GetMapping(params = {"view=compact", "!after"})
+    public ResponseEntity<CompactPageDTO<FlatLoanDTO>> findCompact(LoanFilterDTO dto, Pageable pageRequest, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Page<Loan> result = service.find(dto, pageRequest); //Empréstimo achatado: o livro vira bookId/isbn em vez de um BookDTO aninhado.
+        return conditionalGet.loans(ifNoneMatch, ConditionalGet.loansTag(result), () -> CompactPageDTO.of(result, loanMapper::toFlatDto));
+    }
 
-                    Book book = entity.getBook();
-                    BookDTO bookDTO = modelMapper.map(book, BookDTO.class);
-                    LoanDTO loanDTO = modelMapper.map(entity, LoanDTO.class);
-                    loanDTO.setBook(bookDTO);
-                    return loanDTO;
+    @GetMapping(params = "after")
+    public ResponseEntity<CursorPageDTO<LoanDTO>> findAfter(LoanFilterDTO dto, @RequestParam String after, @RequestParam(defaultValue = "20") int size, @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Slice<Loan> result = service.findAfter(dto, CursorCodec.decode(after), CursorCodec.checkSize(size));
+        return conditionalGet.loans(ifNoneMatch, ConditionalGet.loansTag(result), () -> CursorCodec.toPage(result, loanMapper::toDto, Loan::getId));
+    }
 
-                }).collect(Collectors.toList());
-        return new PageImpl<LoanDTO>(loans, pageRequest, result.getTotalElements());
+    @GetMapping("export")
+    public void export(@RequestParam(defaultValue = "ndjson") String format, HttpServletResponse response) throws IOException {
+        log.info(" exporting loans as {} ", format);
+        ExportWriter<FlatLoanDTO> writer = ExportWriter.open(response, ExportFormat.of(format), "loans", objectMapper,
+                Arrays.asList("id", "customer", "email", "loanDate", "returned", "bookId", "isbn"),
+                dto -> Arrays.asList(dto.getId(), dto.getCustomer(), dto.getEmail(), dto.getLoanDate(),
+                        dto.getReturned(), dto.getBookId(), dto.getIsbn()));
+        service.forEachLoan(loan -> writer.write(loanMapper.toFlatDto(loan)));
+        writer.finish();
     }
 }
\ No newline at end of file
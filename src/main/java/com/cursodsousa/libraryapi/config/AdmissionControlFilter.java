@@ -0,0 +1,224 @@
+package com.cursodsousa.libraryapi.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admissão das requisições da /api antes de chegarem aos controllers, recusando na hora (429) em vez de enfileirar:
+ * token bucket por cliente (IP visto pelo Tomcat; atrás de proxy, server.forward-headers-strategy), limite de
+ * requisições em andamento por classe de endpoint e o size máximo das listagens (400), o mesmo de
+ * spring.data.web.pageable.max-page-size. O estado é só de contadores atômicos, sem locks; recusas em
+ * /actuator/metrics/library.admission.rejected.
+ */
+@Component
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    public enum EndpointClass { READ, WRITE, LOAN_CREATE }
+
+    private final boolean enabled;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final int maxPageSize;
+    private final Map<EndpointClass, Integer> concurrencyLimits = new EnumMap<>(EndpointClass.class);
+    private final Map<EndpointClass, AtomicInteger> inFlight = new EnumMap<>(EndpointClass.class);
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public AdmissionControlFilter(@Value("${application.admission.enabled:true}") boolean enabled,
+                                  @Value("${application.admission.rate.per-second:50}") double ratePerSecond,
+                                  @Value("${application.admission.rate.burst:100}") int burst,
+                                  @Value("${spring.data.web.pageable.max-page-size:2000}") int maxPageSize,
+                                  @Value("${application.admission.concurrency.read:64}") int readLimit,
+                                  @Value("${application.admission.concurrency.write:16}") int writeLimit,
+                                  @Value("${application.admission.concurrency.loan-create:8}") int loanCreateLimit,
+                                  ObjectProvider<MeterRegistry> meterRegistry) {
+        this.enabled = enabled;
+        this.emissionIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+        this.maxPageSize = maxPageSize;
+        this.concurrencyLimits.put(EndpointClass.READ, readLimit);
+        this.concurrencyLimits.put(EndpointClass.WRITE, writeLimit);
+        this.concurrencyLimits.put(EndpointClass.LOAN_CREATE, loanCreateLimit);
+        for (EndpointClass endpointClass : EndpointClass.values()) {
+            inFlight.put(endpointClass, new AtomicInteger());
+        }
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void registerGauges() {
+        meterRegistry.ifAvailable(registry -> {
+            inFlight.forEach((endpointClass, count) -> Gauge.builder("library.admission.inflight", count, AtomicInteger::get)
+                    .description("Requisições da /api em andamento por classe de endpoint")
+                    .tag("endpoint", tag(endpointClass))
+                    .register(registry));
+            Gauge.builder("library.admission.clients", buckets, Map::size)
+                    .description("Clientes com token bucket em memória")
+                    .register(registry);
+        });
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || !request.getRequestURI().startsWith(request.getContextPath() + "/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        EndpointClass endpointClass = classify(request);
+        if (exceedsPageSize(request.getParameter("size"))) {
+            reject(response, HttpStatus.BAD_REQUEST, "page-size", endpointClass, null, "Page size above " + maxPageSize);
+            return;
+        }
+        long waitNanos = buckets.computeIfAbsent(request.getRemoteAddr(), client -> new TokenBucket()).tryAcquire(System.nanoTime());
+        if (waitNanos > 0) {
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, "rate", endpointClass, waitNanos, "Too many requests");
+            return;
+        }
+        AtomicInteger count = inFlight.get(endpointClass);
+        if (count.incrementAndGet() > concurrencyLimits.get(endpointClass)) {
+            count.decrementAndGet();
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, "concurrency", endpointClass, TimeUnit.SECONDS.toNanos(1), "Too many concurrent requests");
+            return;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                count.decrementAndGet();
+            }
+        };
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) { //Requisição async: o limite vale até a resposta sair.
+                request.getAsyncContext().addListener(new ReleaseOnComplete(release));
+            } else {
+                release.run();
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${application.admission.cleanup-ms:60000}")
+    public void evictIdleClients() { //Bucket cheio de novo é igual a um novo: pode sair da memória.
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+
+    static EndpointClass classify(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method)) {
+            return EndpointClass.READ;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (HttpMethod.POST.matches(method) && (path.equals("/api/loans") || path.equals("/api/loans/"))) {
+            return EndpointClass.LOAN_CREATE;
+        }
+        return EndpointClass.WRITE;
+    }
+
+    private boolean exceedsPageSize(String size) {
+        try {
+            return size != null && Integer.parseInt(size.trim()) > maxPageSize;
+        } catch (NumberFormatException e) { //O controller responde ao size inválido.
+            return false;
+        }
+    }
+
+    private void reject(HttpServletResponse response, HttpStatus status, String reason, EndpointClass endpointClass,
+                        Long retryAfterNanos, String message) throws IOException {
+        meterRegistry.ifAvailable(registry -> registry.counter("library.admission.rejected",
+                "reason", reason, "endpoint", tag(endpointClass)).increment());
+        response.setStatus(status.value());
+        if (retryAfterNanos != null) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos + 999_999_999))));
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"errors\":[\"" + message + "\"]}"); //Mesmo formato do ApiErros.
+    }
+
+    private static String tag(EndpointClass endpointClass) {
+        return endpointClass.name().toLowerCase().replace('_', '-');
+    }
+
+    /**
+     * Token bucket na forma de GCRA: um único long com o horário teórico da próxima chegada, atualizado por CAS.
+     * Aceita rajadas de até burst requisições e depois uma a cada emissionIntervalNanos.
+     */
+    private final class TokenBucket {
+
+        private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime() - burstToleranceNanos - emissionIntervalNanos);
+
+        long tryAcquire(long now) { //0 se aceitou; senão, quanto falta para o próximo token.
+            while (true) {
+                long current = theoreticalArrival.get();
+                long start = current - now < 0 ? now : current;
+                long wait = start - now - burstToleranceNanos;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (theoreticalArrival.compareAndSet(current, start + emissionIntervalNanos)) {
+                    return 0;
+                }
+            }
+        }
+
+        boolean isFull(long now) {
+            return theoreticalArrival.get() - now <= 0;
+        }
+    }
+
+    private static final class ReleaseOnComplete implements AsyncListener {
+
+        private final Runnable release;
+
+        ReleaseOnComplete(Runnable release) {
+            this.release = release;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this); //Novo ciclo async: continua esperando o fim.
+        }
+    }
+}
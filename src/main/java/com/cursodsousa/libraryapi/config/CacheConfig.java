@@ -0,0 +1,14 @@
+package com.cursodsousa.libraryapi.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+@EnableCaching
+@Configuration
+public class CacheConfig {
+
+    // Tamanho, TTL e estatísticas dos caches ficam em spring.cache.* no application.properties.
+    public static final String BOOKS_BY_ISBN = "booksByIsbn";
+    public static final String BOOKS_BY_ID = "booksById";
+
+}
@@ -0,0 +1,110 @@
+package com.cursodsousa.libraryapi.config;
+
+import com.cursodsousa.libraryapi.exception.BusinessException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mede toda chamada aos serviços e repositórios: um Timer por classe, método e resultado.
+ * Os histogramas de percentis são ligados em management.metrics.distribution.* no application.properties.
+ */
+@Aspect
+@Component
+public class MetricsAspect {
+
+    public static final String SERVICE_TIMER = "library.service";
+    public static final String REPOSITORY_TIMER = "library.repository";
+
+    private final MeterRegistry meterRegistry;
+
+    //@Lazy quebra o ciclo: o próprio MeterRegistry passa pelo auto-proxy que consulta este aspecto.
+    //O registry só é usado ao criar os Timers, não a cada chamada.
+    public MetricsAspect(@Lazy MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    //Os Timers ficam em cache por proxy e método para não montar tags a cada chamada.
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, MethodTimers>> timers = new ConcurrentHashMap<>();
+
+    @Around("execution(public * com.cursodsousa.libraryapi.service.*Service.*(..))")
+    public Object timeService(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time(SERVICE_TIMER, joinPoint);
+    }
+
+    //Inclui os métodos herdados do JpaRepository; o target() deixa de fora o JpaRepositoryFactoryBean de mesmo nome.
+    @Around("bean(*Repository) && target(org.springframework.data.repository.Repository)")
+    public Object timeRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return time(REPOSITORY_TIMER, joinPoint);
+    }
+
+    private Object time(String name, ProceedingJoinPoint joinPoint) throws Throwable {
+        ConcurrentMap<Method, MethodTimers> proxyTimers = timers
+                .computeIfAbsent(joinPoint.getThis().getClass(), proxy -> new ConcurrentHashMap<>());
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        MethodTimers methodTimers = proxyTimers.get(method);
+        if (methodTimers == null) { //Fora do computeIfAbsent: registrar o Timer pode chamar outros beans.
+            methodTimers = new MethodTimers(name, className(joinPoint), method.getName());
+            proxyTimers.putIfAbsent(method, methodTimers);
+        }
+        long start = System.nanoTime();
+        try {
+            Object result = joinPoint.proceed();
+            methodTimers.success.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (Throwable e) {
+            methodTimers.failure(e).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    private static String className(ProceedingJoinPoint joinPoint) {
+        //Repositórios são proxies JDK: o nome útil é o da interface, não o do SimpleJpaRepository.
+        Class<?> type = Proxy.isProxyClass(joinPoint.getThis().getClass())
+                ? AopProxyUtils.proxiedUserInterfaces(joinPoint.getThis())[0]
+                : AopProxyUtils.ultimateTargetClass(joinPoint.getTarget());
+        return type.getSimpleName();
+    }
+
+    private class MethodTimers {
+
+        private final String name;
+        private final String className;
+        private final String method;
+        private final Timer success;
+        private final ConcurrentMap<Class<?>, Timer> failures = new ConcurrentHashMap<>();
+
+        MethodTimers(String name, String className, String method) {
+            this.name = name;
+            this.className = className;
+            this.method = method;
+            this.success = timer("success", "none");
+        }
+
+        Timer failure(Throwable e) {
+            return failures.computeIfAbsent(e.getClass(), type ->
+                    timer(BusinessException.class.isAssignableFrom(type) ? "business_error" : "error", type.getSimpleName()));
+        }
+
+        private Timer timer(String outcome, String exception) {
+            return Timer.builder(name)
+                    .tag("class", className)
+                    .tag("method", method)
+                    .tag("outcome", outcome)
+                    .tag("exception", exception)
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.cursodsousa.libraryapi.config;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+
+import javax.persistence.EntityManager;
+import java.sql.SQLException;
+
+/**
+ * Sessões das transações que o ReplicaRoutingDataSource pode mandar para uma réplica leem o cache de segundo nível,
+ * mas não gravam nele (CacheMode.GET): uma linha atrasada da réplica não pode virar o Book ou o Loan que as escritas
+ * do primário leem depois. O Book.available fica fora do @Version, então o put da réplica não seria barrado pela versão.
+ */
+public class ReplicaCacheModeJpaDialect extends HibernateJpaDialect {
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition) throws SQLException {
+        Object transactionData = super.beginTransaction(entityManager, definition);
+        if (!ReplicaRoutingDataSource.isReplicaCandidate(definition.isReadOnly(), definition.getName())) {
+            return transactionData;
+        }
+        Session session = entityManager.unwrap(Session.class);
+        CacheMode previousCacheMode = session.getCacheMode();
+        session.setCacheMode(CacheMode.GET);
+        return new ReplicaTransactionData(transactionData, session, previousCacheMode);
+    }
+
+    @Override
+    public void cleanupTransaction(Object transactionData) {
+        if (transactionData instanceof ReplicaTransactionData) {
+            ReplicaTransactionData replicaData = (ReplicaTransactionData) transactionData;
+            replicaData.session.setCacheMode(replicaData.previousCacheMode);
+            super.cleanupTransaction(replicaData.transactionData);
+        } else {
+            super.cleanupTransaction(transactionData);
+        }
+    }
+
+    private static final class ReplicaTransactionData {
+
+        private final Object transactionData;
+        private final Session session;
+        private final CacheMode previousCacheMode;
+
+        ReplicaTransactionData(Object transactionData, Session session, CacheMode previousCacheMode) {
+            this.transactionData = transactionData;
+            this.session = session;
+            this.previousCacheMode = previousCacheMode;
+        }
+    }
+}
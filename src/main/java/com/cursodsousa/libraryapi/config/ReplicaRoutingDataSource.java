@@ -0,0 +1,159 @@
+package com.cursodsousa.libraryapi.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Manda as transações readOnly abertas pelos serviços (BookServiceImpl.find, LoanServiceImpl.findAfter...) para as
+ * réplicas que estão em dia, em rodízio, e todo o resto para o primário. As transações readOnly que o próprio
+ * Spring Data abre nos repositórios continuam no primário: são as leituras antes de uma escrita (getById antes
+ * do update, checkpoints dos jobs), que não podem ver dados atrasados. Leituras de serviço que alimentam outra
+ * estrutura (o rebuild do BookSearchIndex) não são readOnly, para ficarem no primário. As sessões que podem ir para
+ * a réplica não gravam no cache de segundo nível (ReplicaCacheModeJpaDialect) nem nos caches do Spring.
+ * Precisa do LazyConnectionDataSourceProxy na frente para só pegar a conexão depois que o readOnly foi definido.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    static final String PRIMARY = "primary";
+    private static final String SERVICE_PACKAGE = "com.cursodsousa.libraryapi.service.";
+
+    private final DataSource primary;
+    private final Map<String, DataSource> replicas;
+    private final long maxLagMs;
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final Map<String, Long> lagMs = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile List<String> healthy = Collections.emptyList(); //Vazio até a primeira verificação.
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, long maxLagMs,
+                                    ObjectProvider<MeterRegistry> meterRegistry) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.maxLagMs = maxLagMs;
+        this.meterRegistry = meterRegistry;
+        Map<Object, Object> targets = new HashMap<>(replicas);
+        targets.put(PRIMARY, primary);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    public static boolean isReplicaCandidate(boolean readOnly, String transactionName) {
+        return readOnly && transactionName != null && transactionName.startsWith(SERVICE_PACKAGE);
+    }
+
+    public static boolean isReplicaCandidate() { //A transação atual pode estar lendo de uma réplica.
+        return isReplicaCandidate(TransactionSynchronizationManager.isCurrentTransactionReadOnly(),
+                TransactionSynchronizationManager.getCurrentTransactionName());
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!isReplicaCandidate()) {
+            return PRIMARY;
+        }
+        List<String> candidates = healthy;
+        if (candidates.isEmpty()) {
+            return PRIMARY;
+        }
+        return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Object key = determineCurrentLookupKey();
+        if (PRIMARY.equals(key)) {
+            return primary.getConnection();
+        }
+        try {
+            return replicas.get(key).getConnection();
+        } catch (SQLException e) { //Réplica caiu entre duas verificações: sai do rodízio e a leitura vai para o primário.
+            log.warn(" replica {} unavailable, reading from primary ", key, e);
+            markUnhealthy((String) key);
+            return primary.getConnection();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${application.datasource.replica.check-ms:1000}")
+    public void checkReplicas() {
+        Timestamp primaryBeat;
+        try { //O batimento é lido de volta do primário, então nós com relógios diferentes não distorcem o atraso.
+            JdbcTemplate template = new JdbcTemplate(primary);
+            template.update(" update replica_heartbeat set beat_at = ? where id = 1 ", new Timestamp(System.currentTimeMillis()));
+            primaryBeat = template.queryForObject(" select beat_at from replica_heartbeat where id = 1 ", Timestamp.class);
+        } catch (RuntimeException e) {
+            log.warn(" could not write the replica heartbeat on primary ", e);
+            return;
+        }
+        List<String> upToDate = new ArrayList<>();
+        replicas.forEach((name, replica) -> {
+            try {
+                Timestamp replicaBeat = new JdbcTemplate(replica)
+                        .queryForObject(" select beat_at from replica_heartbeat where id = 1 ", Timestamp.class);
+                long lag = Math.max(0, primaryBeat.getTime() - replicaBeat.getTime());
+                if (lagMs.put(name, lag) == null) {
+                    registerLagGauge(name);
+                }
+                if (lag <= maxLagMs) {
+                    upToDate.add(name);
+                }
+            } catch (RuntimeException e) {
+                lagMs.remove(name);
+                log.warn(" replica {} heartbeat check failed ", name, e);
+            }
+        });
+        if (!upToDate.equals(healthy)) {
+            log.info(" replicas in rotation: {} (lag ms: {}) ", upToDate, lagMs);
+        }
+        healthy = Collections.unmodifiableList(upToDate);
+    }
+
+    public Map<String, Long> getLagMs() { //Atraso medido na última verificação; réplica sem resposta fica de fora.
+        return Collections.unmodifiableMap(lagMs);
+    }
+
+    public List<String> getHealthy() {
+        return healthy;
+    }
+
+    private void registerLagGauge(String name) { //Registrado na primeira medição: o MeterRegistry depende do DataSource.
+        meterRegistry.ifAvailable(registry -> Gauge.builder("library.datasource.replica.lag", lagMs, lags -> lags.getOrDefault(name, -1L))
+                .description("Atraso da réplica em relação ao primário, -1 quando não responde")
+                .baseUnit("milliseconds")
+                .tag("replica", name)
+                .register(registry));
+    }
+
+    private synchronized void markUnhealthy(String name) {
+        List<String> remaining = new ArrayList<>(healthy);
+        remaining.remove(name);
+        healthy = Collections.unmodifiableList(remaining);
+    }
+
+    @Override
+    public void close() {
+        replicas.values().stream()
+                .filter(HikariDataSource.class::isInstance)
+                .forEach(replica -> ((HikariDataSource) replica).close());
+    }
+}
@@ -4,6 +4,9 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.OptimisticLock;
 
 import javax.persistence.*;
 import java.util.List;
@@ -13,12 +16,18 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE) //Regiões configuradas em application.conf.
+@Table(indexes = { //Índices criados pelas migrations em db/migration.
+        @Index(name = "ux_book_isbn", columnList = "isbn", unique = true),
+        @Index(name = "ix_book_available", columnList = "available")
+})
 public class Book {
 
     @Id
     @Column
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_seq")
+    @SequenceGenerator(name = "book_seq", sequenceName = "book_seq", allocationSize = 50) //Reserva ids em blocos para permitir inserts em lote.
     private Long id;
 
     @Column
@@ -30,7 +39,27 @@ public class Book {
     @Column
     private String isbn;
 
+    //Falso enquanto houver empréstimo ativo; mantido pelo LoanService e conferido pelo ScheduleService.
+    //Fora do @Version: empréstimos e devoluções não disputam a versão com as edições do livro.
+    @OptimisticLock(excluded = true)
+    @Column(nullable = false)
+    private Boolean available;
+
+    @Column
+    private Integer loanDays; //Prazo dos empréstimos deste livro; nulo usa o do cliente ou o padrão.
+
+    @Version //Barra atualizações concorrentes e compõe o ETag das respostas.
+    @Column
+    private Long version;
+
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE) //Guarda só os ids; os empréstimos vêm da região do Loan.
     @OneToMany(mappedBy = "book", fetch = FetchType.LAZY) //Declara que tem 1 livro para muitos empréstimos.
     private List<Loan> loans;
 
+    @PrePersist
+    void beforeInsert() {
+        if (available == null) { //Livro novo ainda não tem empréstimos.
+            available = true;
+        }
+    }
 }
@@ -0,0 +1,33 @@
+package com.cursodsousa.libraryapi.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = Customer.NAME_CONSTRAINT, columnNames = "name"))
+public class Customer { //Cliente dos empréstimos, identificado pelo nome informado no empréstimo.
+
+    public static final String NAME_CONSTRAINT = "uk_customer_name";
+
+    @Id
+    @Column
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(length = 100, nullable = false)
+    private String name;
+
+    @Column
+    private String email;
+
+    @Column
+    private Integer loanDays; //Prazo dos empréstimos do cliente; tem precedência sobre o do livro.
+}
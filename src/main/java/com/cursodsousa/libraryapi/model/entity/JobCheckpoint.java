@@ -0,0 +1,51 @@
+package com.cursodsousa.libraryapi.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(indexes = @Index(name = "ix_job_checkpoint_job", columnList = "job, referenceDate"))
+public class JobCheckpoint { //Progresso de uma partição de um job em blocos, para retomar de onde parou.
+
+    @Id
+    @Column(length = 100)
+    private String name;
+
+    @Column(length = 100)
+    private String job;
+
+    @Column
+    private LocalDate referenceDate;
+
+    @Column
+    private Long firstId;
+
+    @Column
+    private Long endId; //Inclusivo.
+
+    @Column
+    private Long lastId;
+
+    @Column
+    private Boolean completed;
+
+    @Column(length = 100)
+    private String owner; //Nó que processa a partição enquanto o lease vale.
+
+    @Column
+    private LocalDateTime leaseUntil;
+}
@@ -1,9 +1,13 @@
 package com.cursodsousa.libraryapi.model.entity;
 
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.time.LocalDate;
@@ -13,8 +17,20 @@ import java.time.LocalDate;
 @NoArgsConstructor
 @Builder
 @Entity//Entidade do banco de dados...
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE) //Necessário para o cache da coleção Book.loans não virar N consultas.
+@Table(uniqueConstraints = @UniqueConstraint(name = Loan.ACTIVE_BOOK_CONSTRAINT, columnNames = "active_book_id"),
+        indexes = {
+                @Index(name = "ix_loan_book_returned", columnList = "id_book, returned"),
+                @Index(name = "ix_loan_returned_loan_date", columnList = "returned, loanDate"),
+                @Index(name = "ix_loan_returned_due_date", columnList = "returned, dueDate, id"),
+                @Index(name = "ix_loan_customer_id", columnList = "customer_id, id")
+        })
 public class Loan {
 
+    public static final String ACTIVE_BOOK_CONSTRAINT = "uk_loan_active_book";
+    public static final int DEFAULT_LOAN_DAYS = 4;
+
     @Id
     @Column
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -26,13 +42,45 @@ public class Loan {
     @Column(name = "customer_email")
     private String customerEmail;
 
+    @JoinColumn(name = "customer_id")
+    @ManyToOne(fetch = FetchType.LAZY) //Cliente normalizado; customer e customerEmail guardam o que veio no empréstimo.
+    private Customer borrower;
+
     @JoinColumn(name = "id_book")
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY) //As consultas que precisam do livro fazem join fetch.
     private Book book;
 
     @Column
     private LocalDate loanDate;
 
     @Column
+    private LocalDate dueDate; //Atrasado a partir desta data: loanDate + prazo do LoanPolicy.
+
+    //Dia do primeiro aviso de atraso. Só o LoanRepository.markReminded/releaseReminded grava; o save do empréstimo não.
+    @Column(name = "reminded_at", insertable = false, updatable = false)
+    private LocalDate remindedAt;
+
+    @Version //Barra atualizações concorrentes e compõe o ETag das respostas.
+    @Column
+    private Long version;
+
+    @Column(nullable = false) //Nunca nulo, para que "returned = false" use os índices.
     private Boolean returned;
+
+    //Cópia do id do livro enquanto o empréstimo estiver ativo: o índice único impede dois empréstimos ativos do mesmo livro.
+    @Column(name = "active_book_id")
+    @Setter(AccessLevel.NONE)
+    private Long activeBookId;
+
+    @PrePersist
+    @PreUpdate
+    void beforeWrite() {
+        if (returned == null) {
+            returned = false;
+        }
+        if (dueDate == null && loanDate != null) { //Gravações que não passam pelo LoanService (cargas, testes) usam o prazo padrão.
+            dueDate = loanDate.plusDays(DEFAULT_LOAN_DAYS);
+        }
+        activeBookId = book == null || Boolean.TRUE.equals(returned) ? null : book.getId();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package com.cursodsousa.libraryapi.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+public class OutboxEvent { //Mudança de um empréstimo, gravada junto com ele e publicada depois pelo OutboxRelay.
+
+    public enum Type { LOAN_CREATED, LOAN_RETURNED }
+
+    @Id
+    @Column
+    @GeneratedValue(strategy = GenerationType.IDENTITY) //Ordem dos inserts, não dos commits: só vale entre eventos do mesmo empréstimo.
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 40, nullable = false)
+    private Type type;
+
+    @Column(nullable = false)
+    private Long loanId;
+
+    @Column
+    private Long bookId;
+
+    @Column
+    private Long customerId;
+
+    @Column(nullable = false)
+    private LocalDateTime occurredAt;
+}
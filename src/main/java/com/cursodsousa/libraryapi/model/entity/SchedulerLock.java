@@ -0,0 +1,29 @@
+package com.cursodsousa.libraryapi.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+public class SchedulerLock { //Lock com lease entre as instâncias; vence sozinho se o dono cair.
+
+    @Id
+    @Column(length = 100)
+    private String name;
+
+    @Column(length = 100)
+    private String owner;
+
+    @Column
+    private LocalDateTime leaseUntil;
+}
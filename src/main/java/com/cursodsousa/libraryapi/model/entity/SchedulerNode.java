@@ -0,0 +1,26 @@
+package com.cursodsousa.libraryapi.model.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+public class SchedulerNode { //Instância viva enquanto o heartbeat estiver em dia.
+
+    @Id
+    @Column(length = 100)
+    private String nodeId;
+
+    @Column
+    private LocalDateTime heartbeatAt;
+}
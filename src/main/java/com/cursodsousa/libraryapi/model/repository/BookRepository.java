@@ -1,13 +1,72 @@
 package com.cursodsousa.libraryapi.model.repository;
 
 import com.cursodsousa.libraryapi.model.entity.Book;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 public interface BookRepository extends JpaRepository<Book, Long> {
     boolean existsByIsbn(String isbn);
 
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true")) //Invalidado a cada escrita na tabela book.
     Optional<Book> findByIsbn(String isbn);
 
+    @Query(" select b.available from Book b where b.id = :id ") //Sem cache: lido do banco na transação de quem chama.
+    Optional<Boolean> findAvailableById(@Param("id") Long id);
+
+    @Query(" select b.isbn from Book b where b.isbn in :isbns ")
+    List<String> findExistingIsbns(@Param("isbns") Collection<String> isbns);
+
+    @Query(" select b from Book b where b.id > :after " +
+            " and ( :title is null or lower(b.title) like lower(concat('%', :title, '%')) ) " +
+            " and ( :author is null or lower(b.author) like lower(concat('%', :author, '%')) ) " +
+            " and ( :isbn is null or lower(b.isbn) like lower(concat('%', :isbn, '%')) ) " +
+            " and ( :available is null or b.available = :available ) ")
+    Slice<Book> findSliceAfter( //Mesmo filtro do find por Example, mas buscando a partir do último id lido.
+            @Param("after") Long after,
+            @Param("title") String title,
+            @Param("author") String author,
+            @Param("isbn") String isbn,
+            @Param("available") Boolean available,
+            Pageable pageable
+    );
+
+    //Reconciliação: livros cuja disponibilidade gravada não bate com os empréstimos ativos (active_book_id).
+    @Query(" select b from Book b where b.available = true " +
+            " and exists ( select l.id from Loan l where l.activeBookId = b.id ) ")
+    List<Book> findAvailableWithActiveLoan(Pageable pageable);
+
+    @Query(" select b from Book b where b.available = false " +
+            " and not exists ( select l.id from Loan l where l.activeBookId = b.id ) ")
+    List<Book> findUnavailableWithoutActiveLoan(Pageable pageable);
+
+    //A condição é conferida de novo no próprio update: um empréstimo feito depois da leitura não é sobrescrito.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update Book b set b.available = false where b.id in :ids and b.available = true " +
+            " and exists ( select l.id from Loan l where l.activeBookId = b.id ) ")
+    int markUnavailableIfLoaned(@Param("ids") Collection<Long> ids);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update Book b set b.available = true where b.id in :ids and b.available = false " +
+            " and not exists ( select l.id from Loan l where l.activeBookId = b.id ) ")
+    int markAvailableIfNotLoaned(@Param("ids") Collection<Long> ids);
+
+    @QueryHints({ @QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true") })
+    @Query(" select b from Book b order by b.id ")
+    Stream<Book> streamAll(); //Cursor forward-only; precisa de transação aberta enquanto é consumido.
+
 }
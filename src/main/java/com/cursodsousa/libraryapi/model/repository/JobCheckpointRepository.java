@@ -0,0 +1,43 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.model.entity.JobCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface JobCheckpointRepository extends JpaRepository<JobCheckpoint, String> {
+
+    List<JobCheckpoint> findByJobAndReferenceDateOrderByFirstId( String job, LocalDate referenceDate );
+
+    //Partição livre, vencida (dono caiu) ou já deste nó; o update condicional garante um único dono.
+    @Transactional
+    @Modifying
+    @Query(" update JobCheckpoint c set c.owner = :owner, c.leaseUntil = :until where c.name = :name " +
+            " and c.completed = false and (c.owner is null or c.owner = :owner or c.leaseUntil < :now) ")
+    int claim( @Param("name") String name, @Param("owner") String owner,
+               @Param("now") LocalDateTime now, @Param("until") LocalDateTime until );
+
+    //Grava o progresso e renova o lease; 0 linhas = o lease venceu e outro nó assumiu a partição.
+    @Transactional
+    @Modifying
+    @Query(" update JobCheckpoint c set c.lastId = :lastId, c.completed = :completed, c.leaseUntil = :until " +
+            " where c.name = :name and c.owner = :owner ")
+    int progress( @Param("name") String name, @Param("owner") String owner, @Param("lastId") Long lastId,
+                  @Param("completed") Boolean completed, @Param("until") LocalDateTime until );
+
+    @Transactional
+    @Modifying
+    @Query(" update JobCheckpoint c set c.owner = null, c.leaseUntil = null where c.owner = :owner and c.completed = false ")
+    int releaseAll( @Param("owner") String owner );
+
+    @Transactional
+    @Modifying
+    @Query(" delete from JobCheckpoint c where c.job = :job and c.referenceDate < :date ")
+    int deleteBefore( @Param("job") String job, @Param("date") LocalDate date );
+}
@@ -1,31 +1,113 @@
 package com.cursodsousa.libraryapi.model.repository;
 
 import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Customer;
 import com.cursodsousa.libraryapi.model.entity.Loan;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 public interface LoanRepository extends JpaRepository<Loan, Long> {
 
     @Query(value = " select case when ( count(l.id) > 0 ) then true else false end " +
-            " from Loan l where l.book = :book and ( l.returned is null or l.returned is false ) ")
+            " from Loan l where l.book = :book and l.returned = false ")
     boolean existsByBookAndNotReturned( @Param("book") Book book );
 
-    @Query( value = " select l from Loan as l join l.book as b where b.isbn = :isbn or l.customer = :customer ")
-    Page<Loan> findByBookIsbnOrCustomer(
-            @Param("isbn") String isbn,
-            @Param("customer") String customer,
+    //Filtros do GET /api/loans: o isbn e o nome do cliente já chegam resolvidos em ids, então cada consulta filtra uma
+    //só coluna indexada de loan (id_book, customer_id). Livro OU cliente junta as duas no LoanServiceImpl, sem OR no SQL.
+    @Query( value = " select l from Loan as l join fetch l.book where l.book = :book ",
+            countQuery = " select count(l.id) from Loan as l where l.book = :book ")
+    Page<Loan> findByBook( @Param("book") Book book, Pageable pageable );
+
+    @Query( value = " select l from Loan as l join fetch l.book where l.borrower = :customer ",
+            countQuery = " select count(l.id) from Loan as l where l.borrower = :customer ")
+    Page<Loan> findByBorrower( @Param("customer") Customer customer, Pageable pageable );
+
+    @Query(" select count(l.id) from Loan l where l.book = :book and l.borrower = :customer ")
+    long countByBookAndBorrower( @Param("book") Book book, @Param("customer") Customer customer ); //Contados nas duas.
+
+    @Query( value = " select l from Loan as l join fetch l.book where l.id > :after and l.book = :book ")
+    Slice<Loan> findSliceByBookAfter( @Param("after") Long after, @Param("book") Book book, Pageable pageable );
+
+    @Query( value = " select l from Loan as l join fetch l.book where l.id > :after and l.borrower = :customer ")
+    Slice<Loan> findSliceByBorrowerAfter( @Param("after") Long after, @Param("customer") Customer customer, Pageable pageable );
+
+    @Query(" select l from Loan l where l.dueDate <= :dateLimit and l.returned = false ")
+    List<Loan> findByDueDateLessThanAndNotReturned( @Param("dateLimit") LocalDate dateLimit );
+
+    @Query(" select l from Loan l where l.id > :after and l.id <= :until and l.dueDate <= :dateLimit " +
+            " and l.returned = false order by l.id ")
+    List<Loan> findLateLoansAfter(
+            @Param("dateLimit") LocalDate dateLimit,
+            @Param("after") Long after,
+            @Param("until") Long until,
             Pageable pageable
     );
 
-    Page<Loan> findByBook( Book book, Pageable pageable );
+    @Query(" select min(l.id), max(l.id) from Loan l where l.dueDate <= :dateLimit and l.returned = false ")
+    List<Object[]> findLateLoanIdRange( @Param("dateLimit") LocalDate dateLimit ); //[menor id, maior id]
+
+    //Select for update: um nó que tente o mesmo claim espera este commit e não encontra mais os empréstimos.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query(" select l from Loan l where l.id in :ids and l.returned = false and l.remindedAt is null order by l.id ")
+    List<Loan> findActiveNotRemindedByIds( @Param("ids") Collection<Long> ids );
+
+    //reminded_at não aparece nas respostas: os dois updates não mudam a version nem o ETag.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update Loan l set l.remindedAt = :day where l.id in :ids and l.remindedAt is null ")
+    int markReminded( @Param("ids") Collection<Long> ids, @Param("day") LocalDate day );
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update Loan l set l.remindedAt = null where l.id in :ids and l.remindedAt = :day ")
+    int releaseReminded( @Param("ids") Collection<Long> ids, @Param("day") LocalDate day );
+
+    //Carga do OverdueLoanTracker: só id e vencimento, pelo índice ix_loan_returned_due_date.
+    @Query(" select l.id, l.dueDate from Loan l where l.returned = false and l.dueDate >= :dueFrom ")
+    List<Object[]> findActiveDueDates( @Param("dueFrom") LocalDate dueFrom ); //[id, dueDate]
+
+    @Query(" select l.id, l.dueDate from Loan l where l.returned = false and l.dueDate >= :dueFrom and l.loanDate >= :loanedFrom ")
+    List<Object[]> findActiveDueDatesLoanedSince( @Param("dueFrom") LocalDate dueFrom, @Param("loanedFrom") LocalDate loanedFrom );
+
+    @Query(" select l.id, l.returned from Loan l where l.id in :ids ")
+    List<Object[]> findReturnedByIds( @Param("ids") Collection<Long> ids ); //[id, returned]
+
+    @Query(" select b.isbn, l.id from Loan l join l.book b where b.isbn in :isbns and l.returned = false ")
+    List<Object[]> findActiveLoanIdsByIsbns( @Param("isbns") Collection<String> isbns ); //[isbn, id]
+
+    //Select for update: uma devolução simultânea dos mesmos empréstimos espera este commit e não os encontra mais ativos.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query(" select l from Loan l where l.id in :ids and l.returned = false ")
+    List<Loan> findActiveByIdsForUpdate( @Param("ids") Collection<Long> ids );
+
+    //Update em massa não passa pelo @PreUpdate nem pelo @Version do Loan: active_book_id e version são tratados aqui mesmo.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(" update Loan l set l.returned = true, l.activeBookId = null, l.version = l.version + 1 where l.id in :ids and l.returned = false ")
+    int markReturned( @Param("ids") Collection<Long> ids );
+
+    //As duas contagens percorrem só os índices ix_loan_returned_loan_date e ix_loan_returned_due_date.
+    @Query(" select count(l.id) from Loan l where l.returned = false ")
+    long countActive();
+
+    @Query(" select count(l.id) from Loan l where l.returned = false and l.dueDate <= :dateLimit ")
+    long countLateLoans( @Param("dateLimit") LocalDate dateLimit );
 
-    @Query(" select l from Loan l where l.loanDate <= :threeDaysAgo and ( l.returned is null or l.returned is false ) ")
-    List<Loan> findByLoanDateLessThanAndNotReturned( @Param("threeDaysAgo") LocalDate threeDaysAgo );
-}
\ No newline at end of file
+    @QueryHints({ @QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true") })
+    @Query(" select l from Loan l join fetch l.book order by l.id ")
+    Stream<Loan> streamAllWithBook();
+}
@@ -0,0 +1,7 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.model.entity.MailDeadLetter;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface MailDeadLetterRepository extends JpaRepository<MailDeadLetter, Long> {
+}
@@ -0,0 +1,23 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    List<OutboxEvent> findByOrderById(Pageable pageable);
+
+    //Publicados saem da tabela: o outbox só guarda o que ainda não chegou ao destino.
+    @Transactional
+    @Modifying
+    @Query(" delete from OutboxEvent e where e.id in :ids ")
+    int deleteByIds( @Param("ids") Collection<Long> ids );
+}
@@ -0,0 +1,26 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.model.entity.SchedulerLock;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+public interface SchedulerLockRepository extends JpaRepository<SchedulerLock, String> {
+
+    //A linha do lock vem da migration; pegar o lock é só este update condicional.
+    @Transactional
+    @Modifying
+    @Query(" update SchedulerLock l set l.owner = :owner, l.leaseUntil = :until where l.name = :name " +
+            " and (l.owner is null or l.owner = :owner or l.leaseUntil < :now) ")
+    int acquire( @Param("name") String name, @Param("owner") String owner,
+                 @Param("now") LocalDateTime now, @Param("until") LocalDateTime until );
+
+    @Transactional
+    @Modifying
+    @Query(" update SchedulerLock l set l.owner = null, l.leaseUntil = null where l.name = :name and l.owner = :owner ")
+    int release( @Param("name") String name, @Param("owner") String owner );
+}
@@ -0,0 +1,30 @@
+package com.cursodsousa.libraryapi.model.repository;
+
+import com.cursodsousa.libraryapi.model.entity.SchedulerNode;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+public interface SchedulerNodeRepository extends JpaRepository<SchedulerNode, String> {
+
+    @Transactional
+    @Modifying
+    @Query(" update SchedulerNode n set n.heartbeatAt = :now where n.nodeId = :nodeId ")
+    int heartbeat( @Param("nodeId") String nodeId, @Param("now") LocalDateTime now );
+
+    long countByHeartbeatAtAfter( LocalDateTime since );
+
+    @Transactional
+    @Modifying
+    @Query(" delete from SchedulerNode n where n.heartbeatAt < :before ")
+    int deleteStale( @Param("before") LocalDateTime before );
+
+    @Transactional
+    @Modifying
+    @Query(" delete from SchedulerNode n where n.nodeId = :nodeId ")
+    int leave( @Param("nodeId") String nodeId );
+}
@@ -0,0 +1,25 @@
+package com.cursodsousa.libraryapi.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BookBatchResult { //Resultado de um livro no saveAll; o controller converte para BookBatchResultDTO.
+
+    public enum Status { CREATED, REJECTED }
+
+    private int index;
+    private String isbn;
+    private Long id;
+    private Status status;
+    private String error;
+
+    public static BookBatchResult created(int index, String isbn, Long id) {
+        return new BookBatchResult(index, isbn, id, Status.CREATED, null);
+    }
+
+    public static BookBatchResult rejected(int index, String isbn, String error) {
+        return new BookBatchResult(index, isbn, null, Status.REJECTED, error);
+    }
+}
@@ -4,20 +4,41 @@ import com.cursodsousa.libraryapi.model.entity.Book;
 import lombok.AllArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface BookService {
 
+    int SAVE_ALL_CHUNK_SIZE = 500; //Quantidade de livros verificados e inseridos por vez no saveAll.
+    int RECONCILE_CHUNK_SIZE = 500; //Livros corrigidos por update no reconcileAvailability.
+
     Book save(Book any);
 
+    List<BookBatchResult> saveAll(List<Book> books); //Retorna um resultado por livro, na mesma ordem da lista recebida.
+
     Optional<Book> getById(Long id); //Retorna um Optional, pq pode ser que exista um book com esse ID ou não.
 
     void delete(Book book);
 
-    Book update(Book book);
+    Book update(Book book); //Com version preenchida só atualiza se ela ainda for a atual (If-Match do PUT).
 
     Page<Book> find(Book filter, Pageable pageRequest);
 
+    Page<Book> search(String query, Pageable pageable); //Busca textual em título e autor, ordenada por relevância.
+
+    Slice<Book> findAfter(Book filter, Long afterId, int size); //Paginação por id (keyset), sem consulta de contagem.
+
     Optional<Book> getBookByIsbn(String isbn);
+
+    void forEachBook(Consumer<Book> consumer); //Percorre todo o catálogo com memória constante.
+
+    boolean isAvailable(Long id); //Lido do banco, sem os caches; livro inexistente fica para a FK do insert do empréstimo.
+
+    void updateAvailability(Collection<Long> bookIds, boolean available); //Roda na transação do empréstimo que mudou o livro.
+
+    int reconcileAvailability(); //Corrige a disponibilidade que não bate com os empréstimos ativos; retorna quantos livros mudaram.
 }
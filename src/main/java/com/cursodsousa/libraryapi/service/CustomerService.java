@@ -0,0 +1,15 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.entity.Customer;
+
+import java.util.Optional;
+
+public interface CustomerService {
+
+    Optional<Customer> getById(Long id);
+
+    Optional<Customer> getByName(String name);
+
+    Customer getOrCreate(String name, String email); //Na transação de quem chama; um cliente criado ao mesmo tempo é reaproveitado.
+
+}
@@ -2,25 +2,52 @@ package com.cursodsousa.libraryapi.service;
 
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
 import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Customer;
 import com.cursodsousa.libraryapi.model.entity.Loan;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface LoanService {
 
+    int RETURN_CHUNK_SIZE = 500; //Ids verificados e devolvidos por vez no returnLoans.
+
     Loan save(Loan loan);
 
     Optional<Loan> getById(Long id);
 
     Loan update(Loan loan);
 
+    //Um select e um único update por bloco; um resultado por item, ids primeiro e depois isbns, na ordem recebida.
+    List<ReturnLoanResult> returnLoans(List<Long> ids, List<String> isbns);
+
     Page<Loan> find(LoanFilterDTO filterDTO, Pageable pageable);
 
+    Slice<Loan> findAfter(LoanFilterDTO filterDTO, Long afterId, int size);
+
     Page<Loan> getLoansByBook(Book book, Pageable pageable);
 
+    Slice<Loan> getLoansByCustomer(Customer customer, Long afterId, int size);
+
     List<Loan> getAllLateLoans();
 
+    LocalDate getLateLoansDateLimit(); //Empréstimos com vencimento até essa data e não devolvidos estão atrasados.
+
+    List<Loan> getLateLoans(LocalDate dateLimit, Long afterId, Long untilId, int size); //Bloco seguinte ao id informado, até untilId.
+
+    Long[] getLateLoanIdRange(LocalDate dateLimit); //[menor id, maior id] dos atrasados; nulos se não houver nenhum.
+
+    //Os ainda ativos e sem aviso, em ordem de id, já marcados como avisados em day: outro nó não os recebe mais.
+    List<Loan> claimReminders(Collection<Long> ids, LocalDate day);
+
+    void releaseReminders(Collection<Long> ids, LocalDate day); //Desfaz o claim quando o envio falha.
+
+    void forEachLoan(Consumer<Loan> consumer); //Percorre todo o histórico, já com o livro carregado.
+
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+
+import java.util.List;
+
+//Destino dos eventos do outbox (application.outbox.sink), no lugar de um broker. A aplicação não consome os eventos:
+//o destino é onde um consumidor de fora os lê (o arquivo JSON por linha, por exemplo).
+public interface OutboxSink {
+    void publish(List<OutboxEvent> events);
+}
@@ -0,0 +1,23 @@
+package com.cursodsousa.libraryapi.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class ReturnLoanResult { //Resultado de um item do returnLoans; o controller converte para ReturnLoanResultDTO.
+
+    public enum Status { RETURNED, ALREADY_RETURNED, NOT_FOUND }
+
+    private Long id;
+    private String isbn;
+    private Status status;
+
+    public static ReturnLoanResult ofId(Long id, Status status) {
+        return new ReturnLoanResult(id, null, status);
+    }
+
+    public static ReturnLoanResult ofIsbn(String isbn, Long id, Status status) {
+        return new ReturnLoanResult(id, isbn, status);
+    }
+}
@@ -1,33 +1,237 @@
 package com.cursodsousa.libraryapi.service;
 
+import com.cursodsousa.libraryapi.model.entity.JobCheckpoint;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.JobCheckpointRepository;
+import com.cursodsousa.libraryapi.service.impl.ClusterCoordinator;
+import com.cursodsousa.libraryapi.service.impl.OverdueLoanTracker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class ScheduleService {
 
     private static final String CRON_LATE_LOANS = "0 0 0 1/1 * ?";
+    static final String LATE_LOANS_JOB = "late-loans-mail";
+    static final String NEWLY_LATE_LOANS_JOB = "newly-late-loans-mail";
 
     @Value("${application.mail.lateloans.message}")
     private String message;
 
+    @Value("${application.mail.lateloans.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${application.mail.dispatch.queue-capacity:10000}")
+    private int mailQueueCapacity; //Cada bloco vai inteiro para a fila do MailDispatcher.
+
+    @Value("${application.scheduler.partitions-per-node:2}")
+    private int partitionsPerNode;
+
     private final LoanService loanService;
     private final EmailService emailService;
+    private final JobCheckpointRepository checkpointRepository;
+    private final MeterRegistry meterRegistry;
+    private final BookService bookService;
+    private final ClusterCoordinator coordinator;
+    private final OverdueLoanTracker overdueTracker;
+
+    @PostConstruct
+    public void checkChunkSize() { //Um bloco maior que a fila de emails seria recusado em toda execução.
+        if (chunkSize > mailQueueCapacity) {
+            throw new IllegalStateException("application.mail.lateloans.chunk-size (" + chunkSize
+                    + ") must not exceed application.mail.dispatch.queue-capacity (" + mailQueueCapacity + ")");
+        }
+    }
 
     @Scheduled(cron = CRON_LATE_LOANS)
     public void sendMailToLateLoans() {
-        List<Loan> allLateLoans = loanService.getAllLateLoans();
-        List<String> mailsList = allLateLoans.stream()
-                .map(loan -> loan.getCustomerEmail())
-                .collect(Collectors.toList());
+        LocalDate dateLimit = repeatDateLimit();
+        planLateLoans(dateLimit);
+        processLateLoans(dateLimit);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${application.scheduler.claim-interval-ms:60000}",
+            fixedDelayString = "${application.scheduler.claim-interval-ms:60000}")
+    public void resumeMailToLateLoans() { //Pega partições ainda livres ou de nós que caíram (lease vencido).
+        processLateLoans(repeatDateLimit());
+    }
+
+    //Primeiro aviso, no dia em que o empréstimo vence, a partir do OverdueLoanTracker em vez de uma consulta em loan.
+    @Scheduled(initialDelayString = "${application.loans.overdue.reminder-ms:60000}",
+            fixedDelayString = "${application.loans.overdue.reminder-ms:60000}")
+    public void sendMailToNewlyLateLoans() {
+        if (!coordinator.tryLock(NEWLY_LATE_LOANS_JOB)) {
+            return;
+        }
+        LocalDate today = loanService.getLateLoansDateLimit();
+        try {
+            List<Long> ids;
+            do {
+                ids = overdueTracker.pollDue(today, chunkSize);
+                remind(ids, today);
+            } while (ids.size() == chunkSize && coordinator.tryLock(NEWLY_LATE_LOANS_JOB)); //Renova o lease a cada bloco.
+        } catch (RuntimeException e) { //O bloco que falhou voltou para o tracker e é tentado de novo na próxima execução.
+            meterRegistry.counter("library.lateloans.newly.failures").increment();
+            log.error(" newly late loans mail for {} stopped ", today, e);
+        } finally {
+            coordinator.unlock(NEWLY_LATE_LOANS_JOB);
+        }
+    }
+
+    private void remind(List<Long> ids, LocalDate today) {
+        List<Loan> claimed = Collections.emptyList();
+        try {
+            claimed = loanService.claimReminders(ids, today); //Devolvidos ou já avisados por outro nó ficam de fora.
+            List<String> mailsList = claimed.stream()
+                    .map(Loan::getCustomerEmail)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+            if (!mailsList.isEmpty()) {
+                emailService.sendMails(message, mailsList); //Tudo ou nada: um envio recusado não manda nenhum.
+            }
+            meterRegistry.counter("library.lateloans.newly.mails").increment(mailsList.size());
+        } catch (RuntimeException e) {
+            overdueTracker.requeue(today, ids);
+            try {
+                if (!claimed.isEmpty()) {
+                    loanService.releaseReminders(claimed.stream().map(Loan::getId).collect(Collectors.toList()), today);
+                }
+            } catch (RuntimeException releaseFailure) { //Continuam marcados: recebem o aviso do job da meia-noite.
+                e.addSuppressed(releaseFailure);
+            }
+            throw e;
+        }
+    }
+
+    private LocalDate repeatDateLimit() { //Vencidos até ontem: quem vence hoje recebe o aviso do sendMailToNewlyLateLoans.
+        return loanService.getLateLoansDateLimit().minusDays(1);
+    }
+
+    @Scheduled(initialDelayString = "${application.books.availability.reconcile-ms:3600000}",
+            fixedDelayString = "${application.books.availability.reconcile-ms:3600000}")
+    public void reconcileBookAvailability() { //Confere o Book.available gravado contra os empréstimos ativos.
+        int repaired = bookService.reconcileAvailability();
+        if (repaired > 0) {
+            log.warn(" book availability out of sync with loans: {} books repaired ", repaired);
+        }
+        meterRegistry.counter("library.books.availability.repaired").increment(repaired);
+    }
+
+    private void planLateLoans(LocalDate dateLimit) { //Só um nó divide o job do dia; os outros pegam as partições.
+        if (!partitions(dateLimit).isEmpty() || !coordinator.tryLock(LATE_LOANS_JOB)) {
+            return;
+        }
+        try {
+            if (!partitions(dateLimit).isEmpty()) {
+                return;
+            }
+            checkpointRepository.deleteBefore(LATE_LOANS_JOB, dateLimit); //Execuções de dias anteriores são cobertas pela atual.
+            List<JobCheckpoint> partitions = split(dateLimit, loanService.getLateLoanIdRange(dateLimit), coordinator.liveNodes());
+            checkpointRepository.saveAll(partitions);
+            log.info(" late loans mail job for {} split into {} partitions ", dateLimit, partitions.size());
+        } finally {
+            coordinator.unlock(LATE_LOANS_JOB);
+        }
+    }
+
+    //Faixas de id do mesmo tamanho, algumas por nó vivo, para um nó mais rápido pegar mais de uma.
+    List<JobCheckpoint> split(LocalDate dateLimit, Long[] idRange, int liveNodes) {
+        List<JobCheckpoint> partitions = new ArrayList<>();
+        if (idRange[0] == null) { //Nenhum atrasado: o dia já nasce concluído.
+            partitions.add(partition(dateLimit, 0, 0L, 0L, true));
+            return partitions;
+        }
+        long span = idRange[1] - idRange[0] + 1;
+        long count = Math.min(span, (long) liveNodes * partitionsPerNode);
+        long width = (span + count - 1) / count;
+        for (long firstId = idRange[0]; firstId <= idRange[1]; firstId += width) {
+            partitions.add(partition(dateLimit, partitions.size(), firstId, Math.min(firstId + width - 1, idRange[1]), false));
+        }
+        return partitions;
+    }
+
+    private JobCheckpoint partition(LocalDate dateLimit, int number, Long firstId, Long endId, boolean completed) {
+        return JobCheckpoint.builder()
+                .name(LATE_LOANS_JOB + ":" + dateLimit + ":" + number)
+                .job(LATE_LOANS_JOB)
+                .referenceDate(dateLimit)
+                .firstId(firstId)
+                .endId(endId)
+                .lastId(firstId - 1)
+                .completed(completed)
+                .build();
+    }
+
+    private List<JobCheckpoint> partitions(LocalDate dateLimit) {
+        return checkpointRepository.findByJobAndReferenceDateOrderByFirstId(LATE_LOANS_JOB, dateLimit);
+    }
+
+    private void processLateLoans(LocalDate dateLimit) {
+        for (JobCheckpoint partition : partitions(dateLimit)) {
+            if (!Boolean.TRUE.equals(partition.getCompleted()) && coordinator.claim(partition.getName())) {
+                //Relê depois do claim: o dono anterior pode ter avançado antes de o lease vencer.
+                checkpointRepository.findById(partition.getName()).ifPresent(this::run);
+            }
+        }
+    }
+
+    private void run(JobCheckpoint partition) {
+        if (partition.getLastId() >= partition.getFirstId()) {
+            log.info(" resuming late loans mail partition {} after loan id {} ", partition.getName(), partition.getLastId());
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        Long lastId = partition.getLastId();
+        try {
+            List<Loan> chunk;
+            do {
+                chunk = loanService.getLateLoans(partition.getReferenceDate(), lastId, partition.getEndId(), chunkSize);
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                List<String> mailsList = chunk.stream()
+                        .map(loan -> loan.getCustomerEmail())
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList());
+                if (!mailsList.isEmpty()) {
+                    emailService.sendMails(message, mailsList); //Cada bloco é um envio independente.
+                }
+
+                lastId = chunk.get(chunk.size() - 1).getId();
+                meterRegistry.counter("library.lateloans.job.chunks").increment();
+                meterRegistry.counter("library.lateloans.job.mails").increment(mailsList.size());
+                if (!coordinator.progress(partition.getName(), lastId, false)) {
+                    outcome = "lost";
+                    log.warn(" late loans mail partition {} taken over by another node after loan id {} ", partition.getName(), lastId);
+                    return;
+                }
+            } while (chunk.size() == chunkSize);
 
-        emailService.sendMails(message, mailsList);
+            coordinator.progress(partition.getName(), lastId, true);
+        } catch (RuntimeException e) {
+            outcome = "failure";
+            meterRegistry.counter("library.lateloans.job.failures").increment();
+            log.error(" late loans mail partition {} stopped after loan id {} ", partition.getName(), lastId, e);
+        } finally {
+            sample.stop(meterRegistry.timer("library.lateloans.job.duration", "outcome", outcome));
+        }
     }
 }
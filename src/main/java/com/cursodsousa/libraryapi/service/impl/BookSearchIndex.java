@@ -0,0 +1,450 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Índice invertido de trigramas sobre título e autor dos livros, mantido em memória.
+ * Cada termo da busca casa por palavra exata, por prefixo ou com até 1 (4+ letras)
+ * ou 2 (8+ letras) erros de digitação; todos os termos precisam casar.
+ * Cada nó tem o seu: o rebuild periódico traz o que foi gravado pelos outros nós.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class BookSearchIndex {
+
+    private static final float TITLE_WEIGHT = 2f;
+    private static final float AUTHOR_WEIGHT = 1f;
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final BookRepository repository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Segment segment = new Segment(); //Trocado inteiro no fim de cada rebuild.
+    private Map<Long, Book> changedDuringRebuild; //Mudanças locais enquanto o rebuild lê o banco; null = removido.
+
+    private final ThreadLocal<int[]> counters = ThreadLocal.withInitial(() -> new int[0]);
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${application.books.search.rebuild-ms:600000}",
+            fixedDelayString = "${application.books.search.rebuild-ms:600000}")
+    @Transactional //Não é readOnly: fica no primário, e não numa réplica atrasada.
+    public void rebuild() { //Monta um segmento novo fora da trava: as buscas seguem no atual até a troca.
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            changedDuringRebuild = new HashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Segment rebuilt = new Segment();
+        try {
+            try (Stream<Book> books = repository.streamAll()) {
+                books.forEach(book -> {
+                    rebuilt.add(new Doc(book));
+                    entityManager.detach(book);
+                });
+            }
+            lock.writeLock().lock();
+            try {
+                changedDuringRebuild.forEach((id, book) -> { //A leitura do banco pode ter sido anterior ao commit local.
+                    if (book == null) {
+                        rebuilt.remove(id);
+                    } else if (!rebuilt.hasNewer(book)) {
+                        rebuilt.index(book);
+                    }
+                });
+                segment = rebuilt;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info(" book search index built with {} books in {} ms ", rebuilt.docNoById.size(), System.currentTimeMillis() - start);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                changedDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public void index(Book book) {
+        if (book.getId() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            segment.index(book);
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.put(book.getId(), book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long id) {
+        if (id == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            segment.remove(id);
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.put(id, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Page<Book> search(String query, Pageable pageable) {
+        List<String> terms = tokens(query).distinct().collect(Collectors.toList());
+        if (terms.isEmpty()) {
+            return Page.empty(pageable);
+        }
+
+        lock.readLock().lock();
+        try {
+            Segment current = segment;
+            //Começa pelo termo mais seletivo; os demais só são conferidos nos candidatos que sobraram.
+            terms.sort(Comparator.comparingLong(term -> estimate(current, term)));
+            Candidates candidates = candidates(current, terms.get(0));
+            for (String term : terms.subList(1, terms.size())) {
+                candidates.retain(term);
+            }
+
+            long[] ranked = candidates.ranked();
+            int from = (int) Math.min(pageable.getOffset(), ranked.length);
+            int to = Math.min(from + pageable.getPageSize(), ranked.length);
+            List<Book> content = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                content.add(current.docs.get((int) ranked[i]).toBook());
+            }
+            return new PageImpl<>(content, pageable, ranked.length);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return segment.docNoById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long estimate(Segment segment, String term) { //Limite de candidatos: soma das listas mais curtas que ainda podem atingir minShared.
+        Set<String> grams = grams("$$" + term);
+        Map<String, IntList> postings = segment.postings;
+        int[] sizes = grams.stream().mapToInt(gram -> postings.containsKey(gram) ? postings.get(gram).size : 0).sorted().toArray();
+        int lists = Math.min(sizes.length, 3 * maxTypos(term) + 1);
+        long estimate = 0;
+        for (int i = 0; i < lists; i++) {
+            estimate += sizes[i];
+        }
+        return estimate;
+    }
+
+    private Candidates candidates(Segment segment, String term) {
+        int maxTypos = maxTypos(term);
+        Set<String> grams = grams("$$" + term); //Sem o "$" final para casar também prefixos.
+        int minShared = Math.max(1, grams.size() - 3 * maxTypos); //Cada erro de digitação estraga até 3 trigramas.
+
+        int[] counts = counters.get();
+        if (counts.length < segment.docs.size()) {
+            counts = new int[segment.docs.size()];
+            counters.set(counts);
+        }
+        IntList touched = new IntList();
+        try {
+            for (String gram : grams) {
+                IntList list = segment.postings.get(gram);
+                if (list == null) {
+                    continue;
+                }
+                for (int i = 0; i < list.size; i++) {
+                    int docNo = list.values[i];
+                    if (counts[docNo]++ == 0) {
+                        touched.add(docNo);
+                    }
+                }
+            }
+
+            Candidates candidates = new Candidates(segment, touched.size);
+            for (int i = 0; i < touched.size; i++) {
+                int docNo = touched.values[i];
+                if (counts[docNo] >= minShared) {
+                    candidates.add(docNo, score(term, maxTypos, segment.docs.get(docNo)));
+                }
+            }
+            return candidates;
+        } finally {
+            for (int i = 0; i < touched.size; i++) {
+                counts[touched.values[i]] = 0;
+            }
+        }
+    }
+
+    private static int maxTypos(String term) {
+        return term.length() >= 8 ? 2 : term.length() >= 4 ? 1 : 0;
+    }
+
+    private static float score(String term, int maxTypos, Doc doc) {
+        if (doc == null) {
+            return 0;
+        }
+        return Math.max(TITLE_WEIGHT * match(term, doc.titleTokens, maxTypos),
+                AUTHOR_WEIGHT * match(term, doc.authorTokens, maxTypos));
+    }
+
+    private static float match(String term, String[] tokens, int maxTypos) {
+        float best = 0;
+        for (String token : tokens) {
+            if (token.equals(term)) {
+                return 1f;
+            }
+            if (token.startsWith(term)) {
+                best = Math.max(best, 0.75f);
+            } else if (maxTypos > 0) {
+                int distance = distance(term, token, maxTypos);
+                if (distance <= maxTypos) {
+                    best = Math.max(best, 0.6f - 0.2f * (distance - 1));
+                } else if (token.length() > term.length()) {
+                    distance = distance(term, token.substring(0, term.length()), maxTypos);
+                    if (distance <= maxTypos) {
+                        best = Math.max(best, 0.4f - 0.1f * (distance - 1));
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    //Distância de edição com transposição (optimal string alignment), abandonada ao passar de max.
+    static int distance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], previous2[j - 2] + 1);
+                }
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = previous2;
+            previous2 = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    static Stream<String> tokens(String text) {
+        if (text == null) {
+            return Stream.empty();
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return NON_WORD.splitAsStream(normalized.toLowerCase(Locale.ROOT)).filter(token -> !token.isEmpty());
+    }
+
+    private static Set<String> grams(String padded) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    private static final class Segment { //Documentos e listas de trigramas; só é alterado com a trava de escrita.
+        private final List<Doc> docs = new ArrayList<>(); //Posição = número interno do documento, null = removido.
+        private final Map<Long, Integer> docNoById = new HashMap<>();
+        private final Map<String, IntList> postings = new HashMap<>();
+        private int removed;
+
+        private void index(Book book) {
+            Doc doc = new Doc(book);
+            Integer docNo = docNoById.get(doc.id);
+            if (docNo != null && docs.get(docNo).sameText(doc)) { //Só mudou o que não é indexado (disponibilidade, versão).
+                docs.set(docNo, doc);
+                return;
+            }
+            remove(doc.id);
+            add(doc);
+        }
+
+        private boolean hasNewer(Book book) { //O banco já trouxe uma versão mais nova que a da mudança local.
+            Integer docNo = docNoById.get(book.getId());
+            Long version = docNo == null ? null : docs.get(docNo).version;
+            return version != null && book.getVersion() != null && version > book.getVersion();
+        }
+
+        private void add(Doc doc) {
+            int docNo = docs.size();
+            docs.add(doc);
+            docNoById.put(doc.id, docNo);
+
+            Set<String> grams = new LinkedHashSet<>();
+            Stream.concat(Arrays.stream(doc.titleTokens), Arrays.stream(doc.authorTokens))
+                    .forEach(token -> grams.addAll(grams("$$" + token + "$")));
+            grams.forEach(gram -> postings.computeIfAbsent(gram, key -> new IntList()).add(docNo));
+        }
+
+        private void remove(Long id) {
+            Integer docNo = docNoById.remove(id);
+            if (docNo == null) {
+                return;
+            }
+            docs.set(docNo, null);
+            removed++;
+            if (removed > 1000 && removed > docs.size() / 2) { //As listas só crescem; refaz quando metade está morta.
+                List<Doc> live = docs.stream().filter(Objects::nonNull).collect(Collectors.toList());
+                docs.clear();
+                docNoById.clear();
+                postings.clear();
+                removed = 0;
+                live.forEach(this::add);
+            }
+        }
+    }
+
+    private static final class Doc {
+        private final long id;
+        private final String title;
+        private final String author;
+        private final String isbn;
+        private final Boolean available;
+        private final Long version; //Entra no ETag da busca.
+        private final String[] titleTokens;
+        private final String[] authorTokens;
+
+        private Doc(Book book) {
+            this.id = book.getId();
+            this.title = book.getTitle();
+            this.author = book.getAuthor();
+            this.isbn = book.getIsbn();
+            this.available = book.getAvailable();
+            this.version = book.getVersion();
+            this.titleTokens = tokens(title).toArray(String[]::new);
+            this.authorTokens = tokens(author).toArray(String[]::new);
+        }
+
+        private boolean sameText(Doc other) {
+            return Arrays.equals(titleTokens, other.titleTokens) && Arrays.equals(authorTokens, other.authorTokens);
+        }
+
+        private Book toBook() {
+            return Book.builder().id(id).title(title).author(author).isbn(isbn).available(available).version(version).build();
+        }
+    }
+
+    private static final class Candidates {
+        private final Segment segment;
+        private int[] docNos;
+        private float[] scores;
+        private int size;
+
+        private Candidates(Segment segment, int capacity) {
+            this.segment = segment;
+            docNos = new int[Math.max(capacity, 1)];
+            scores = new float[docNos.length];
+        }
+
+        private void add(int docNo, float score) {
+            if (score > 0) {
+                docNos[size] = docNo;
+                scores[size++] = score;
+            }
+        }
+
+        private void retain(String term) {
+            int maxTypos = maxTypos(term);
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                float score = score(term, maxTypos, segment.docs.get(docNos[i]));
+                if (score > 0) {
+                    docNos[kept] = docNos[i];
+                    scores[kept++] = scores[i] + score;
+                }
+            }
+            size = kept;
+        }
+
+        private long[] ranked() { //Maior nota primeiro; empate pela ordem de indexação (id no rebuild).
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                long inverted = Integer.MAX_VALUE - Float.floatToIntBits(scores[i]);
+                keys[i] = inverted << 32 | docNos[i];
+            }
+            Arrays.sort(keys);
+            for (int i = 0; i < size; i++) {
+                keys[i] = keys[i] & 0xFFFFFFFFL;
+            }
+            return keys;
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -1,57 +1,173 @@
 package com.cursodsousa.libraryapi.service.impl;
 
+import com.cursodsousa.libraryapi.config.CacheConfig;
+import com.cursodsousa.libraryapi.config.ReplicaRoutingDataSource;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.service.BookBatchResult;
 import com.cursodsousa.libraryapi.service.BookService;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class BookServiceImpl implements BookService {
 
     private BookRepository repository;
+    private BookSearchIndex searchIndex;
+    private CacheManager cacheManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
-    public BookServiceImpl(BookRepository repository) {
+    public BookServiceImpl(BookRepository repository, BookSearchIndex searchIndex, CacheManager cacheManager) {
         this.repository = repository;
+        this.searchIndex = searchIndex;
+        this.cacheManager = cacheManager;
     }
 
     @Override
+    @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#book.isbn", condition = "#book.isbn != null")
     public Book save(Book book) {
         if(repository.existsByIsbn(book.getIsbn())){
             throw new BusinessException("Isbn já cadastrado.");
         }
+        book.setAvailable(true); //Livro novo ainda não tem empréstimos.
+
+        Book savedBook = repository.save(book);
+        searchIndex.index(savedBook);
+        return savedBook;
+    }
+
+    @Override
+    @Transactional
+    public List<BookBatchResult> saveAll(List<Book> books) {
+        List<BookBatchResult> results = new ArrayList<>(books.size());
+        for (int from = 0; from < books.size(); from += SAVE_ALL_CHUNK_SIZE) {
+            int to = Math.min(from + SAVE_ALL_CHUNK_SIZE, books.size());
+            results.addAll(saveChunk(books.subList(from, to), from));
+        }
+        return results;
+    }
+
+    private List<BookBatchResult> saveChunk(List<Book> chunk, int offset) {
+        Set<String> isbns = chunk.stream()
+                .map(Book::getIsbn)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<String> usedIsbns = isbns.isEmpty()
+                ? new HashSet<>()
+                : new HashSet<>(repository.findExistingIsbns(isbns)); //Uma única consulta para o bloco inteiro.
+
+        List<Book> accepted = new ArrayList<>(chunk.size());
+        List<BookBatchResult> results = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            Book book = chunk.get(i);
+            if (book.getIsbn() == null) {
+                results.add(BookBatchResult.rejected(offset + i, null, "Isbn não informado."));
+            } else if (!usedIsbns.add(book.getIsbn())) { //Também barra isbn repetido dentro do próprio lote.
+                results.add(BookBatchResult.rejected(offset + i, book.getIsbn(), "Isbn já cadastrado."));
+            } else {
+                book.setAvailable(true);
+                accepted.add(book);
+                results.add(null);
+            }
+        }
 
-        return repository.save(book);
+        repository.saveAll(accepted);
+        repository.flush(); //Dispara os inserts agrupados pelo hibernate.jdbc.batch_size.
+        afterCommit(() -> accepted.forEach(searchIndex::index));
+
+        for (int i = 0; i < chunk.size(); i++) {
+            if (results.get(i) == null) {
+                Book book = chunk.get(i);
+                results.set(i, BookBatchResult.created(offset + i, book.getIsbn(), book.getId()));
+            }
+        }
+        return results;
     }
 
     @Override
     public Optional<Book> getById(Long id) {
-        return this.repository.findById(id);
+        return cached(CacheConfig.BOOKS_BY_ID, id, () -> this.repository.findById(id));
     }
 
     @Override
+    @Caching(evict = { //Antes da chamada: uma falha no meio não deixa no cache o livro que talvez já tenha mudado.
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ID, key = "#book.id", condition = "#book.id != null", beforeInvocation = true),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#book.isbn", condition = "#book.isbn != null", beforeInvocation = true)
+    })
     public void delete(Book book){
         if(book == null || book.getId() == null){
             throw new IllegalArgumentException("Book id cant be null.");
         }
         this.repository.delete(book);
+        searchIndex.remove(book.getId());
     }
 
     @Override
+    @Transactional
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ID, key = "#book.id", condition = "#book.id != null", beforeInvocation = true),
+            @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#book.isbn", condition = "#book.isbn != null", beforeInvocation = true)
+    })
     public Book update(Book book) {
         if(book == null || book.getId() == null){
             throw new IllegalArgumentException("Book id cant be null.");
         }
-        return repository.save(book);
+        //Aplica os campos editáveis no livro lido agora: o recebido pode ser uma cópia com versão e disponibilidade antigas.
+        Book current = repository.findById(book.getId())
+                .orElseThrow(() -> new BusinessException("Livro não encontrado."));
+        if (book.getVersion() != null && !book.getVersion().equals(current.getVersion())) { //Versão pedida pelo If-Match.
+            throw new ObjectOptimisticLockingFailureException(Book.class, book.getId());
+        }
+        String previousIsbn = current.getIsbn(); //O @CacheEvict só conhece o isbn novo.
+        evict(CacheConfig.BOOKS_BY_ISBN, previousIsbn);
+        current.setTitle(book.getTitle());
+        current.setAuthor(book.getAuthor());
+        current.setIsbn(book.getIsbn());
+        current.setLoanDays(book.getLoanDays());
+
+        Book updatedBook = repository.save(current);
+        afterCommit(() -> {
+            evictCached(updatedBook); //Uma leitura concorrente pode ter guardado a versão anterior depois do evict inicial.
+            evict(CacheConfig.BOOKS_BY_ISBN, previousIsbn);
+            searchIndex.index(updatedBook);
+        });
+        return updatedBook;
     }
 
     @Override
+    @Transactional(readOnly = true) //Listagem: pode ir para uma réplica.
     public Page<Book> find(Book filter, Pageable pageRequest) {
         Example<Book> example = Example.of(filter,
                 ExampleMatcher
@@ -63,8 +179,139 @@ public class BookServiceImpl implements BookService {
         return repository.findAll(example, pageRequest);
     }
 
+    @Override
+    public Page<Book> search(String query, Pageable pageable) {
+        return searchIndex.search(query, pageable);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<Book> findAfter(Book filter, Long afterId, int size) {
+        return repository.findSliceAfter(
+                afterId == null ? 0L : afterId,
+                filter.getTitle(),
+                filter.getAuthor(),
+                filter.getIsbn(),
+                filter.getAvailable(),
+                PageRequest.of(0, size, Sort.by("id"))
+        );
+    }
+
     @Override
     public Optional<Book> getBookByIsbn(String isbn) {
-        return repository.findByIsbn(isbn);
+        return cached(CacheConfig.BOOKS_BY_ISBN, isbn, () -> repository.findByIsbn(isbn));
+    }
+
+    //O cache guarda uma cópia desanexada e cada chamada recebe outra: quem altera o livro devolvido não altera o cache.
+    private Optional<Book> cached(String cacheName, Object key, Supplier<Optional<Book>> loader) {
+        Cache cache = key == null ? null : cacheManager.getCache(cacheName);
+        Book book = cache == null ? null : cache.get(key, Book.class);
+        if (book == null) {
+            Optional<Book> loaded = loader.get();
+            if (!loaded.isPresent()) {
+                return loaded; //Não guarda ids inexistentes.
+            }
+            book = detachedCopy(loaded.get());
+            if (cache != null && !ReplicaRoutingDataSource.isReplicaCandidate()) { //Lido talvez de uma réplica: não guarda.
+                cache.put(key, book);
+            }
+        }
+        return Optional.of(detachedCopy(book));
+    }
+
+    private static Book detachedCopy(Book book) { //Sem a coleção lazy de empréstimos, presa à sessão de quem leu.
+        return Book.builder()
+                .id(book.getId())
+                .title(book.getTitle())
+                .author(book.getAuthor())
+                .isbn(book.getIsbn())
+                .available(book.getAvailable())
+                .loanDays(book.getLoanDays())
+                .version(book.getVersion())
+                .build();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachBook(Consumer<Book> consumer) {
+        try (Stream<Book> books = repository.streamAll()) {
+            books.forEach(book -> {
+                consumer.accept(book);
+                entityManager.detach(book); //Não acumula o catálogo no contexto de persistência.
+            });
+        }
+    }
+
+    @Override
+    @Transactional
+    public boolean isAvailable(Long id) {
+        return repository.findAvailableById(id).orElse(Boolean.TRUE);
+    }
+
+    @Override
+    @Transactional
+    public void updateAvailability(Collection<Long> bookIds, boolean available) {
+        for (Long id : new HashSet<>(bookIds)) {
+            repository.findById(id) //Por chave primária, em geral do cache de segundo nível, que só recebe leituras do primário.
+                    .filter(book -> !Objects.equals(book.getAvailable(), available))
+                    .ifPresent(book -> {
+                        book.setAvailable(available); //Gravado no flush do commit, sem mudar a versão do livro.
+                        afterCommit(() -> {
+                            evictCached(book);
+                            searchIndex.index(book);
+                        });
+                    });
+        }
+    }
+
+    @Override
+    @Transactional
+    public int reconcileAvailability() {
+        int repaired = 0;
+        List<Book> wrong;
+        while (!(wrong = repository.findAvailableWithActiveLoan(PageRequest.of(0, RECONCILE_CHUNK_SIZE))).isEmpty()) {
+            repaired += repair(wrong, repository.markUnavailableIfLoaned(ids(wrong)));
+        }
+        while (!(wrong = repository.findUnavailableWithoutActiveLoan(PageRequest.of(0, RECONCILE_CHUNK_SIZE))).isEmpty()) {
+            repaired += repair(wrong, repository.markAvailableIfNotLoaned(ids(wrong)));
+        }
+        return repaired;
+    }
+
+    private int repair(List<Book> books, int updated) {
+        books.forEach(book -> afterCommit(() -> { //Relê depois do commit: um livro alterado no meio do caminho não foi tocado pelo update.
+            evictCached(book);
+            repository.findById(book.getId()).ifPresent(searchIndex::index);
+        }));
+        return updated;
+    }
+
+    private static List<Long> ids(List<Book> books) {
+        return books.stream().map(Book::getId).collect(Collectors.toList());
+    }
+
+    private void evictCached(Book book) { //Os caches do Spring guardam uma cópia do livro inteiro, inclusive a disponibilidade.
+        evict(CacheConfig.BOOKS_BY_ID, book.getId());
+        evict(CacheConfig.BOOKS_BY_ISBN, book.getIsbn());
+    }
+
+    private void evict(String cacheName, Object key) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache != null && key != null) {
+            cache.evict(key);
+        }
+    }
+
+    private void afterCommit(Runnable action) { //O índice de busca só enxerga o que foi de fato gravado.
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
     }
 }
@@ -0,0 +1,103 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.entity.SchedulerNode;
+import com.cursodsousa.libraryapi.model.repository.JobCheckpointRepository;
+import com.cursodsousa.libraryapi.model.repository.SchedulerLockRepository;
+import com.cursodsousa.libraryapi.model.repository.SchedulerNodeRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Coordenação dos jobs agendados entre as instâncias que compartilham o banco: cada nó registra um heartbeat em
+ * scheduler_node, o lock de scheduler_lock elege quem planeja o job e cada partição (job_checkpoint) é processada
+ * por um único nó enquanto o lease dele vale. Os horários vêm do relógio de cada nó, então o lease precisa ser
+ * bem maior que a diferença entre os relógios e que o tempo de um bloco do job.
+ */
+@Component
+@Slf4j
+public class ClusterCoordinator {
+
+    private static final int MISSED_HEARTBEATS = 3; //Sem heartbeat por esse número de intervalos o nó é dado como morto.
+
+    private final SchedulerNodeRepository nodeRepository;
+    private final SchedulerLockRepository lockRepository;
+    private final JobCheckpointRepository checkpointRepository;
+    private final String nodeId;
+    private final long heartbeatMs;
+    private final long leaseMs;
+
+    public ClusterCoordinator(SchedulerNodeRepository nodeRepository,
+                              SchedulerLockRepository lockRepository,
+                              JobCheckpointRepository checkpointRepository,
+                              @Value("${application.scheduler.node-id:}") String nodeId,
+                              @Value("${application.scheduler.heartbeat-ms:10000}") long heartbeatMs,
+                              @Value("${application.scheduler.lease-ms:120000}") long leaseMs) {
+        this.nodeRepository = nodeRepository;
+        this.lockRepository = lockRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.nodeId = nodeId.isEmpty() ? "node-" + UUID.randomUUID() : nodeId;
+        this.heartbeatMs = heartbeatMs;
+        this.leaseMs = leaseMs;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${application.scheduler.heartbeat-ms:10000}")
+    public void heartbeat() {
+        LocalDateTime now = LocalDateTime.now();
+        if (nodeRepository.heartbeat(nodeId, now) == 0) {
+            log.info(" scheduler node {} joined the cluster ", nodeId);
+            nodeRepository.save(new SchedulerNode(nodeId, now));
+        }
+        nodeRepository.deleteStale(now.minus(Duration.ofMillis(heartbeatMs * MISSED_HEARTBEATS * 10))); //Limpa nós mortos há muito tempo.
+    }
+
+    @PreDestroy
+    public void leave() { //Saída limpa: as partições deste nó voltam para os outros sem esperar o lease vencer.
+        try {
+            checkpointRepository.releaseAll(nodeId);
+            nodeRepository.leave(nodeId);
+        } catch (DataAccessException e) {
+            log.warn(" scheduler node {} could not leave the cluster cleanly ", nodeId, e);
+        }
+    }
+
+    public int liveNodes() {
+        LocalDateTime since = LocalDateTime.now().minus(Duration.ofMillis(heartbeatMs * MISSED_HEARTBEATS));
+        return (int) Math.max(1, nodeRepository.countByHeartbeatAtAfter(since));
+    }
+
+    public boolean tryLock(String name) {
+        LocalDateTime now = LocalDateTime.now();
+        return lockRepository.acquire(name, nodeId, now, leaseUntil(now)) == 1;
+    }
+
+    public void unlock(String name) {
+        lockRepository.release(name, nodeId);
+    }
+
+    public boolean claim(String partition) {
+        LocalDateTime now = LocalDateTime.now();
+        return checkpointRepository.claim(partition, nodeId, now, leaseUntil(now)) == 1;
+    }
+
+    public boolean progress(String partition, Long lastId, boolean completed) {
+        return checkpointRepository.progress(partition, nodeId, lastId, completed, leaseUntil(LocalDateTime.now())) == 1;
+    }
+
+    private LocalDateTime leaseUntil(LocalDateTime now) {
+        return now.plus(Duration.ofMillis(leaseMs));
+    }
+}
@@ -0,0 +1,70 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.entity.Customer;
+import com.cursodsousa.libraryapi.model.repository.CustomerRepository;
+import com.cursodsousa.libraryapi.service.CustomerService;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Optional;
+
+@Service
+public class CustomerServiceImpl implements CustomerService {
+
+    private CustomerRepository repository;
+    private JdbcTemplate jdbcTemplate;
+
+    public CustomerServiceImpl(CustomerRepository repository, JdbcTemplate jdbcTemplate) {
+        this.repository = repository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public Optional<Customer> getById(Long id) {
+        return repository.findById(id);
+    }
+
+    @Override
+    public Optional<Customer> getByName(String name) {
+        return repository.findByName(name);
+    }
+
+    @Override
+    @Transactional
+    public Customer getOrCreate(String name, String email) {
+        Optional<Customer> customer = repository.findByName(name);
+        if (customer.isPresent()) {
+            return customer.get();
+        }
+        try {
+            insert(name, email);
+        } catch (DuplicateKeyException e) { //Outro empréstimo criou o mesmo cliente ao mesmo tempo.
+            return repository.findByName(name).orElseThrow(() -> e);
+        }
+        return repository.findByName(name).orElseThrow(() -> new IllegalStateException("Customer not inserted: " + name));
+    }
+
+    //Insert JDBC na conexão da transação, atrás de um savepoint: a violação do índice único desfaz só o insert,
+    //sem marcar a transação JPA como rollback-only e sem pegar uma segunda conexão do pool.
+    private void insert(String name, String email) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            Savepoint savepoint = connection.setSavepoint();
+            try (PreparedStatement statement = connection.prepareStatement(" insert into customer (name, email) values (?, ?) ")) {
+                statement.setString(1, name);
+                statement.setString(2, email);
+                statement.executeUpdate();
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException e) {
+                connection.rollback(savepoint);
+                throw e;
+            }
+            return null;
+        });
+    }
+}
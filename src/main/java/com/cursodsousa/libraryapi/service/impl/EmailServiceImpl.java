@@ -4,10 +4,10 @@ import com.cursodsousa.libraryapi.service.EmailService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -15,19 +15,21 @@ public class EmailServiceImpl implements EmailService {
 
     @Value("${application.mail.default-remetent}")
     private String remetent;
-    private final JavaMailSender javaMailSender;
+    private final MailDispatcher mailDispatcher;
 
     @Override
     public void sendMails(String message, List<String> mailsList) {
 
-        String[] mails = mailsList.toArray(new String[mailsList.size()]);
-
-        SimpleMailMessage mailMessage = new SimpleMailMessage();
-        mailMessage.setFrom(remetent);
-        mailMessage.setSubject("Livro com espréstimo atrasado");
-        mailMessage.setText(message);
-        mailMessage.setTo(mails);
-
-        javaMailSender.send(mailMessage);
+        //Uma mensagem por destinatário: um endereço não vê os outros e a falha de um não derruba o lote.
+        List<SimpleMailMessage> mailMessages = mailsList.stream().map(mail -> {
+            SimpleMailMessage mailMessage = new SimpleMailMessage();
+            mailMessage.setFrom(remetent);
+            mailMessage.setSubject("Livro com espréstimo atrasado");
+            mailMessage.setText(message);
+            mailMessage.setTo(mail);
+            return mailMessage;
+        }).collect(Collectors.toList());
+
+        mailDispatcher.enqueue(mailMessages);
     }
 }
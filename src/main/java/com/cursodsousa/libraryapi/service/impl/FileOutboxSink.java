@@ -0,0 +1,49 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.service.OutboxSink;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+@ConditionalOnProperty(name = "application.outbox.sink", havingValue = "file")
+public class FileOutboxSink implements OutboxSink { //Um evento JSON por linha, acrescentado ao arquivo a cada lote.
+
+    private final ObjectMapper objectMapper;
+    private final Path path;
+
+    public FileOutboxSink(ObjectMapper objectMapper, @Value("${application.outbox.file.path:outbox-events.jsonl}") String path) {
+        this.objectMapper = objectMapper;
+        this.path = Paths.get(path);
+    }
+
+    @Override
+    public void publish(List<OutboxEvent> events) {
+        List<String> lines = new ArrayList<>(events.size());
+        try {
+            for (OutboxEvent event : events) {
+                lines.add(objectMapper.writeValueAsString(event));
+            }
+            //Uma escrita por lote; o lote só sai do outbox depois que ela volta.
+            Files.write(path, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND,
+                    StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.service.OutboxSink;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Component
+@ConditionalOnProperty(name = "application.outbox.sink", havingValue = "memory", matchIfMissing = true)
+public class InMemoryOutboxSink implements OutboxSink { //Guarda os últimos eventos publicados, como um tópico limitado.
+
+    private final int capacity;
+    private final Deque<OutboxEvent> events = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public InMemoryOutboxSink(@Value("${application.outbox.memory.capacity:10000}") int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void publish(List<OutboxEvent> batch) {
+        events.addAll(batch);
+        size.addAndGet(batch.size());
+        while (size.get() > capacity && events.pollFirst() != null) { //Descarta os mais antigos além da capacidade.
+            size.decrementAndGet();
+        }
+    }
+
+    public List<OutboxEvent> getEvents() {
+        return new ArrayList<>(events);
+    }
+}
@@ -0,0 +1,68 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.service.LoanService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gauges de empréstimos ativos e atrasados. Os valores são contados periodicamente
+ * e guardados, assim cada leitura do /actuator/metrics não vai ao banco. Só o nó que
+ * detém o lock loan-metrics conta; nos outros os gauges ficam sem valor (NaN).
+ */
+@Component
+@RequiredArgsConstructor
+public class LoanMetrics {
+
+    static final String LOCK = "loan-metrics";
+
+    private final LoanRepository repository;
+    private final LoanService loanService;
+    private final ClusterCoordinator coordinator;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong activeLoans = new AtomicLong();
+    private final AtomicLong lateLoans = new AtomicLong();
+    private final AtomicBoolean counting = new AtomicBoolean();
+
+    @PostConstruct
+    public void register() {
+        Gauge.builder("library.loans.active", activeLoans, this::valueOf)
+                .description("Empréstimos ainda não devolvidos")
+                .register(meterRegistry);
+        Gauge.builder("library.loans.late", lateLoans, this::valueOf)
+                .description("Empréstimos não devolvidos além do prazo")
+                .register(meterRegistry);
+    }
+
+    //O lock não é liberado entre as contagens: o lease é renovado a cada refresh e outro nó só assume se este parar.
+    @Scheduled(fixedDelayString = "${application.metrics.loans.refresh-ms:60000}")
+    public void refresh() {
+        if (!coordinator.tryLock(LOCK)) {
+            counting.set(false);
+            return;
+        }
+        activeLoans.set(repository.countActive());
+        lateLoans.set(repository.countLateLoans(loanService.getLateLoansDateLimit()));
+        counting.set(true);
+    }
+
+    @PreDestroy
+    public void release() { //Outro nó assume no próximo refresh, sem esperar o lease vencer.
+        if (counting.get()) {
+            coordinator.unlock(LOCK);
+        }
+    }
+
+    private double valueOf(AtomicLong value) {
+        return counting.get() ? value.get() : Double.NaN;
+    }
+}
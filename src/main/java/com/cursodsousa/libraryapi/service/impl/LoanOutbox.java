@@ -0,0 +1,55 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Grava os eventos de empréstimo no outbox dentro da transação de quem chamou (MANDATORY): o evento só existe se a
+ * mudança do empréstimo for commitada, e a mudança não é commitada sem o evento. A publicação fica com o OutboxRelay.
+ */
+@Component
+@RequiredArgsConstructor
+public class LoanOutbox {
+
+    private final OutboxEventRepository repository;
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void loanCreated(Loan loan) {
+        repository.save(event(OutboxEvent.Type.LOAN_CREATED, loan));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void loanReturned(Loan loan) {
+        repository.save(event(OutboxEvent.Type.LOAN_RETURNED, loan));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void loansReturned(Map<Long, Long> bookIdByLoan) { //Devolução em lote: só ids, sem carregar os empréstimos.
+        LocalDateTime now = LocalDateTime.now();
+        List<OutboxEvent> events = bookIdByLoan.entrySet().stream()
+                .map(entry -> OutboxEvent.builder().type(OutboxEvent.Type.LOAN_RETURNED)
+                        .loanId(entry.getKey()).bookId(entry.getValue()).occurredAt(now).build())
+                .collect(Collectors.toList());
+        repository.saveAll(events);
+    }
+
+    private OutboxEvent event(OutboxEvent.Type type, Loan loan) {
+        return OutboxEvent.builder()
+                .type(type)
+                .loanId(loan.getId())
+                .bookId(loan.getBook() == null ? null : loan.getBook().getId())
+                .customerId(loan.getBorrower() == null ? null : loan.getBorrower().getId())
+                .occurredAt(LocalDateTime.now())
+                .build();
+    }
+}
@@ -0,0 +1,32 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+
+@Component
+public class LoanPolicy { //Prazo do empréstimo: o do cliente, senão o do livro, senão application.loans.loan-days.
+
+    private final int defaultLoanDays;
+
+    public LoanPolicy(@Value("${application.loans.loan-days:" + Loan.DEFAULT_LOAN_DAYS + "}") int defaultLoanDays) {
+        this.defaultLoanDays = defaultLoanDays;
+    }
+
+    public LocalDate dueDate(Loan loan) {
+        LocalDate loanDate = loan.getLoanDate() == null ? LocalDate.now() : loan.getLoanDate();
+        return loanDate.plusDays(loanDays(loan));
+    }
+
+    private int loanDays(Loan loan) {
+        if (loan.getBorrower() != null && loan.getBorrower().getLoanDays() != null) {
+            return loan.getBorrower().getLoanDays();
+        }
+        if (loan.getBook() != null && loan.getBook().getLoanDays() != null) {
+            return loan.getBook().getLoanDays();
+        }
+        return defaultLoanDays;
+    }
+}
@@ -3,32 +3,106 @@ package com.cursodsousa.libraryapi.service.impl;
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Customer;
 import com.cursodsousa.libraryapi.model.entity.Loan;
 import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.CustomerService;
 import com.cursodsousa.libraryapi.service.LoanService;
+import com.cursodsousa.libraryapi.service.ReturnLoanResult;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.support.PropertyComparator;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class LoanServiceImpl implements LoanService {
 
     private LoanRepository repository;
+    private BookService bookService;
+    private CustomerService customerService;
+    private LoanOutbox outbox;
+    private LoanPolicy policy;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
-    public LoanServiceImpl(LoanRepository repository) {
+    public LoanServiceImpl(LoanRepository repository, BookService bookService, CustomerService customerService, LoanOutbox outbox,
+                           LoanPolicy policy) {
         this.repository = repository;
+        this.bookService = bookService;
+        this.customerService = customerService;
+        this.outbox = outbox;
+        this.policy = policy;
     }
 
     @Override
+    @Transactional
     public Loan save(Loan loan) {
-        if( repository.existsByBookAndNotReturned(loan.getBook()) ){
+        Book book = loan.getBook();
+        //Confere no banco, nesta transação: o livro recebido pode ser uma cópia antiga do cache.
+        if (book != null && book.getId() != null && !bookService.isAvailable(book.getId())) {
             throw new BusinessException("Book already loaned");
         }
-        return repository.save(loan);
+        if (loan.getBorrower() == null && loan.getCustomer() != null) {
+            loan.setBorrower(customerOf(loan));
+        }
+        if (loan.getDueDate() == null) {
+            loan.setDueDate(policy.dueDate(loan));
+        }
+        //Um único insert: o índice único em active_book_id recusa o segundo empréstimo ativo do mesmo livro.
+        Loan savedLoan;
+        try {
+            savedLoan = repository.saveAndFlush(loan);
+        } catch (DataIntegrityViolationException e) {
+            if (isActiveBookViolation(e)) {
+                throw new BusinessException("Book already loaned");
+            }
+            throw e;
+        }
+        updateAvailability(savedLoan);
+        outbox.loanCreated(savedLoan);
+        return savedLoan;
+    }
+
+    private Customer customerOf(Loan loan) {
+        return customerService.getOrCreate(loan.getCustomer(), loan.getCustomerEmail()); //Nesta mesma transação.
+    }
+
+    private boolean isActiveBookViolation(DataIntegrityViolationException e) {
+        Throwable cause = e.getCause();
+        return cause instanceof ConstraintViolationException
+                && ((ConstraintViolationException) cause).getConstraintName() != null
+                && ((ConstraintViolationException) cause).getConstraintName()
+                    .toLowerCase().contains(Loan.ACTIVE_BOOK_CONSTRAINT);
     }
 
     @Override
@@ -37,24 +111,249 @@ public class LoanServiceImpl implements LoanService {
     }
 
     @Override
+    @Transactional
     public Loan update(Loan loan) {
-        return repository.save(loan);
+        Loan updatedLoan = repository.save(loan);
+        updateAvailability(updatedLoan);
+        if (Boolean.TRUE.equals(updatedLoan.getReturned())) {
+            outbox.loanReturned(updatedLoan);
+        }
+        return updatedLoan;
+    }
+
+    private void updateAvailability(Loan loan) { //Mesma transação do empréstimo: livro e empréstimo mudam juntos.
+        if (loan.getBook() != null && loan.getBook().getId() != null) {
+            bookService.updateAvailability(Collections.singleton(loan.getBook().getId()), Boolean.TRUE.equals(loan.getReturned()));
+        }
     }
 
     @Override
-    public Page<Loan> find(LoanFilterDTO filterDTO, Pageable pageable) {
-        return repository.findByBookIsbnOrCustomer( filterDTO.getIsbn(), filterDTO.getCustomer(), pageable );
+    @Transactional
+    public List<ReturnLoanResult> returnLoans(List<Long> ids, List<String> isbns) {
+        List<ReturnLoanResult> results = new ArrayList<>();
+        List<Long> idList = ids == null ? Collections.emptyList() : ids;
+        for (int from = 0; from < idList.size(); from += RETURN_CHUNK_SIZE) {
+            results.addAll(returnByIds(idList.subList(from, Math.min(from + RETURN_CHUNK_SIZE, idList.size()))));
+        }
+        List<String> isbnList = isbns == null ? Collections.emptyList() : isbns;
+        for (int from = 0; from < isbnList.size(); from += RETURN_CHUNK_SIZE) {
+            results.addAll(returnByIsbns(isbnList.subList(from, Math.min(from + RETURN_CHUNK_SIZE, isbnList.size()))));
+        }
+        return results;
+    }
+
+    private List<ReturnLoanResult> returnByIds(List<Long> chunk) {
+        Set<Long> ids = chunk.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<Long, Boolean> returnedById = new HashMap<>();
+        if (!ids.isEmpty()) {
+            repository.findReturnedByIds(ids).forEach(row -> returnedById.put((Long) row[0], (Boolean) row[1]));
+        }
+        Set<Long> returnedNow = markReturned(returnedById.keySet().stream()
+                .filter(id -> !returnedById.get(id)).collect(Collectors.toSet()));
+
+        Set<Long> seen = new HashSet<>();
+        List<ReturnLoanResult> results = new ArrayList<>(chunk.size());
+        for (Long id : chunk) {
+            Boolean returned = returnedById.get(id);
+            if (returned == null) {
+                results.add(ReturnLoanResult.ofId(id, ReturnLoanResult.Status.NOT_FOUND));
+            } else if (!returnedNow.contains(id) || !seen.add(id)) { //Id repetido no lote: a primeira ocorrência já devolveu.
+                results.add(ReturnLoanResult.ofId(id, ReturnLoanResult.Status.ALREADY_RETURNED));
+            } else {
+                results.add(ReturnLoanResult.ofId(id, ReturnLoanResult.Status.RETURNED));
+            }
+        }
+        return results;
+    }
+
+    private List<ReturnLoanResult> returnByIsbns(List<String> chunk) {
+        Set<String> isbns = chunk.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+        Map<String, Long> activeLoanByIsbn = new HashMap<>();
+        if (!isbns.isEmpty()) { //O índice único em active_book_id garante no máximo um empréstimo ativo por livro.
+            repository.findActiveLoanIdsByIsbns(isbns).forEach(row -> activeLoanByIsbn.put((String) row[0], (Long) row[1]));
+        }
+        Set<Long> returnedNow = markReturned(new HashSet<>(activeLoanByIsbn.values()));
+
+        Set<String> seen = new HashSet<>();
+        List<ReturnLoanResult> results = new ArrayList<>(chunk.size());
+        for (String isbn : chunk) {
+            Long id = activeLoanByIsbn.get(isbn);
+            if (id == null) {
+                results.add(ReturnLoanResult.ofIsbn(isbn, null, ReturnLoanResult.Status.NOT_FOUND));
+            } else if (!returnedNow.contains(id) || !seen.add(isbn)) { //Devolvido por outra requisição desde a consulta.
+                results.add(ReturnLoanResult.ofIsbn(isbn, id, ReturnLoanResult.Status.ALREADY_RETURNED));
+            } else {
+                results.add(ReturnLoanResult.ofIsbn(isbn, id, ReturnLoanResult.Status.RETURNED));
+            }
+        }
+        return results;
+    }
+
+    //Só os empréstimos travados aqui, ainda ativos, são devolvidos: uma devolução simultânea dos mesmos ids fica com
+    //o resto, e cada empréstimo gera um único RETURNED, uma única troca de disponibilidade e um único evento.
+    private Set<Long> markReturned(Set<Long> activeIds) {
+        if (activeIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Map<Long, Long> bookIdByLoan = repository.findActiveByIdsForUpdate(activeIds).stream()
+                .collect(Collectors.toMap(Loan::getId, loan -> loan.getBook().getId()));
+        if (!bookIdByLoan.isEmpty()) {
+            repository.markReturned(bookIdByLoan.keySet());
+            bookService.updateAvailability(new HashSet<>(bookIdByLoan.values()), true);
+            outbox.loansReturned(bookIdByLoan);
+        }
+        return bookIdByLoan.keySet();
+    }
+
+    @Override
+    @Transactional(readOnly = true) //Listagem: pode ir para uma réplica.
+    public Page<Loan> find(LoanFilterDTO filterDTO, Pageable pageable) { //isbn OU cliente, como antes.
+        Optional<Book> book = bookOf(filterDTO);
+        Optional<Customer> customer = customerOf(filterDTO);
+        if (book.isPresent() && customer.isPresent()) {
+            return findByBookOrBorrower(book.get(), customer.get(), pageable);
+        }
+        if (book.isPresent()) {
+            return repository.findByBook(book.get(), pageable);
+        }
+        if (customer.isPresent()) {
+            return repository.findByBorrower(customer.get(), pageable);
+        }
+        return Page.empty(pageable);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<Loan> findAfter(LoanFilterDTO filterDTO, Long afterId, int size) {
+        Long after = afterId == null ? 0L : afterId;
+        PageRequest pageRequest = PageRequest.of(0, size, Sort.by("id"));
+        Optional<Book> book = bookOf(filterDTO);
+        Optional<Customer> customer = customerOf(filterDTO);
+        if (book.isPresent() && customer.isPresent()) {
+            return merge(repository.findSliceByBookAfter(after, book.get(), pageRequest),
+                    repository.findSliceByBorrowerAfter(after, customer.get(), pageRequest), pageRequest);
+        }
+        if (book.isPresent()) {
+            return repository.findSliceByBookAfter(after, book.get(), pageRequest);
+        }
+        if (customer.isPresent()) {
+            return repository.findSliceByBorrowerAfter(after, customer.get(), pageRequest);
+        }
+        return new SliceImpl<>(Collections.emptyList(), pageRequest, false);
+    }
+
+    //Livro OU cliente sem OR no SQL: cada consulta usa o seu índice e traz as primeiras offset + size linhas na ordem
+    //pedida; a página sai da junção das duas. Quem está nas duas (livro E cliente) é descontado do total uma vez.
+    private Page<Loan> findByBookOrBorrower(Book book, Customer customer, Pageable pageable) {
+        Sort sort = pageable.getSort().getOrderFor("id") == null ? pageable.getSort().and(Sort.by("id")) : pageable.getSort();
+        Pageable firstRows = pageable.isPaged()
+                ? PageRequest.of(0, Math.toIntExact(pageable.getOffset() + pageable.getPageSize()), sort)
+                : pageable;
+        Page<Loan> byBook = repository.findByBook(book, firstRows);
+        Page<Loan> byBorrower = repository.findByBorrower(customer, firstRows);
+        List<Loan> loans = union(byBook, byBorrower).stream()
+                .sorted(comparatorOf(sort))
+                .skip(pageable.isPaged() ? pageable.getOffset() : 0)
+                .limit(pageable.isPaged() ? pageable.getPageSize() : Long.MAX_VALUE)
+                .collect(Collectors.toList());
+        long total = byBook.getTotalElements() + byBorrower.getTotalElements()
+                - repository.countByBookAndBorrower(book, customer);
+        return new PageImpl<>(loans, pageable, total);
+    }
+
+    private Slice<Loan> merge(Slice<Loan> byBook, Slice<Loan> byBorrower, PageRequest pageRequest) {
+        List<Loan> loans = union(byBook, byBorrower).stream()
+                .sorted(Comparator.comparing(Loan::getId))
+                .collect(Collectors.toList());
+        boolean hasNext = loans.size() > pageRequest.getPageSize() || byBook.hasNext() || byBorrower.hasNext();
+        return new SliceImpl<>(loans.subList(0, Math.min(loans.size(), pageRequest.getPageSize())), pageRequest, hasNext);
+    }
+
+    private Collection<Loan> union(Slice<Loan> first, Slice<Loan> second) {
+        Map<Long, Loan> loansById = new LinkedHashMap<>();
+        Stream.concat(first.stream(), second.stream()).forEach(loan -> loansById.putIfAbsent(loan.getId(), loan));
+        return loansById.values();
+    }
+
+    private Comparator<Loan> comparatorOf(Sort sort) {
+        return sort.stream()
+                .map(order -> (Comparator<Loan>) new PropertyComparator<Loan>(order.getProperty(), order.isIgnoreCase(), order.isAscending()))
+                .reduce(Comparator::thenComparing)
+                .orElse(Comparator.comparing(Loan::getId));
+    }
+
+    private Optional<Book> bookOf(LoanFilterDTO filterDTO) { //Vem do cache booksByIsbn.
+        return filterDTO.getIsbn() == null ? Optional.empty() : bookService.getBookByIsbn(filterDTO.getIsbn());
+    }
+
+    private Optional<Customer> customerOf(LoanFilterDTO filterDTO) {
+        return filterDTO.getCustomer() == null ? Optional.empty() : customerService.getByName(filterDTO.getCustomer());
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Page<Loan> getLoansByBook(Book book, Pageable pageable) {
         return repository.findByBook(book, pageable);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<Loan> getLoansByCustomer(Customer customer, Long afterId, int size) {
+        return repository.findSliceByBorrowerAfter(afterId == null ? 0L : afterId, customer, PageRequest.of(0, size, Sort.by("id")));
+    }
+
     @Override
     public List<Loan> getAllLateLoans() {
-        final Integer loanDays = 4;
-        LocalDate threeDaysAgo = LocalDate.now().minusDays(loanDays);
-        return repository.findByLoanDateLessThanAndNotReturned(threeDaysAgo);
+        return repository.findByDueDateLessThanAndNotReturned(getLateLoansDateLimit());
+    }
+
+    @Override
+    public LocalDate getLateLoansDateLimit() { //O prazo já está no dueDate de cada empréstimo.
+        return LocalDate.now();
+    }
+
+    @Override
+    public List<Loan> getLateLoans(LocalDate dateLimit, Long afterId, Long untilId, int size) {
+        return repository.findLateLoansAfter(dateLimit, afterId == null ? 0L : afterId,
+                untilId == null ? Long.MAX_VALUE : untilId, PageRequest.of(0, size));
+    }
+
+    @Override
+    public Long[] getLateLoanIdRange(LocalDate dateLimit) {
+        Object[] range = repository.findLateLoanIdRange(dateLimit).get(0);
+        return new Long[]{(Long) range[0], (Long) range[1]};
+    }
+
+    @Override
+    @Transactional
+    public List<Loan> claimReminders(Collection<Long> ids, LocalDate day) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Loan> loans = repository.findActiveNotRemindedByIds(ids);
+        if (!loans.isEmpty()) {
+            repository.markReminded(loans.stream().map(Loan::getId).collect(Collectors.toList()), day);
+        }
+        return loans;
+    }
+
+    @Override
+    @Transactional
+    public void releaseReminders(Collection<Long> ids, LocalDate day) {
+        if (!ids.isEmpty()) {
+            repository.releaseReminded(ids, day);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachLoan(Consumer<Loan> consumer) {
+        try (Stream<Loan> loans = repository.streamAllWithBook()) {
+            loans.forEach(loan -> {
+                consumer.accept(loan);
+                entityManager.detach(loan.getBook());
+                entityManager.detach(loan);
+            });
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,191 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.entity.MailDeadLetter;
+import com.cursodsousa.libraryapi.model.repository.MailDeadLetterRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MailDispatcher { //Fila limitada + workers que enviam em lote, fora da thread de quem pediu o envio.
+
+    @Value("${application.mail.dispatch.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${application.mail.dispatch.workers:2}")
+    private int workers;
+
+    @Value("${application.mail.dispatch.batch-size:50}")
+    private int batchSize;
+
+    @Value("${application.mail.dispatch.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${application.mail.dispatch.backoff-ms:1000}")
+    private long backoffMs;
+
+    @Value("${application.mail.dispatch.offer-timeout-ms:5000}")
+    private long offerTimeoutMs;
+
+    private final JavaMailSender javaMailSender;
+    private final MeterRegistry meterRegistry;
+    private final MailDeadLetterRepository deadLetterRepository;
+
+    private BlockingQueue<SimpleMailMessage> queue;
+    private Semaphore capacity; //Vagas da fila: reservadas de uma vez para a lista inteira no enqueue.
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        queue = new LinkedBlockingQueue<>();
+        capacity = new Semaphore(queueCapacity, true);
+        meterRegistry.gauge("library.mail.queue.size", queue, BlockingQueue::size);
+
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "mail-dispatcher-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false; //Workers esvaziam a fila antes de sair.
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+
+    public void enqueue(List<SimpleMailMessage> messages) { //Tudo ou nada: ou a lista inteira entra na fila ou nenhuma mensagem.
+        if (messages.size() > queueCapacity) { //Nunca caberia, nem com a fila vazia: erro de quem chamou, não fila cheia.
+            meterRegistry.counter("library.mail.rejected").increment(messages.size());
+            throw new IllegalArgumentException("Mail list of " + messages.size() + " messages exceeds the queue capacity of " + queueCapacity);
+        }
+        boolean reserved;
+        try {
+            reserved = capacity.tryAcquire(messages.size(), offerTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reserved = false;
+        }
+        if (!reserved) { //Devolve a pressão para quem chamou em vez de crescer sem limite.
+            meterRegistry.counter("library.mail.rejected").increment(messages.size());
+            throw new IllegalStateException("Mail queue is full");
+        }
+        queue.addAll(messages);
+    }
+
+    private void work() {
+        List<SimpleMailMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                SimpleMailMessage first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                capacity.release(batch.size());
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error(" unexpected error on mail dispatcher ", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<SimpleMailMessage> batch) throws InterruptedException {
+        List<SimpleMailMessage> pending = batch;
+        for (int attempt = 1; ; attempt++) {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            try {
+                //Um único send com várias mensagens usa a mesma conexão SMTP para o lote inteiro.
+                javaMailSender.send(pending.toArray(new SimpleMailMessage[0]));
+                sample.stop(meterRegistry.timer("library.mail.send", "outcome", "success"));
+                meterRegistry.counter("library.mail.sent").increment(pending.size());
+                return;
+            } catch (MailException e) {
+                sample.stop(meterRegistry.timer("library.mail.send", "outcome", "failure"));
+                List<SimpleMailMessage> failed = failedMessages(e, pending);
+                meterRegistry.counter("library.mail.sent").increment(pending.size() - failed.size());
+                meterRegistry.counter("library.mail.failures").increment(failed.size());
+                pending = failed;
+
+                if (attempt >= maxAttempts) {
+                    failed.forEach(message -> deadLetter(message, e));
+                    return;
+                }
+                log.warn(" mail send attempt {} failed for {} messages: {} ", attempt, failed.size(), e.getMessage());
+                meterRegistry.counter("library.mail.retries").increment();
+                Thread.sleep(backoffMs << (attempt - 1));
+            }
+        }
+    }
+
+    private List<SimpleMailMessage> failedMessages(MailException e, List<SimpleMailMessage> pending) {
+        if (e instanceof MailSendException && !((MailSendException) e).getFailedMessages().isEmpty()) {
+            //Só reenvia as mensagens que falharam, as demais do lote já foram entregues.
+            return ((MailSendException) e).getFailedMessages().keySet().stream()
+                    .filter(SimpleMailMessage.class::isInstance)
+                    .map(SimpleMailMessage.class::cast)
+                    .collect(Collectors.toList());
+        }
+        return new ArrayList<>(pending);
+    }
+
+    private void deadLetter(SimpleMailMessage message, MailException e) {
+        String recipient = String.join(",", message.getTo());
+        log.error(" mail to {} moved to dead letters after {} attempts ", recipient, maxAttempts);
+        try { //No banco: sobrevive a um restart e fica visível para todos os nós.
+            deadLetterRepository.save(MailDeadLetter.builder()
+                    .recipient(recipient)
+                    .subject(message.getSubject())
+                    .body(truncate(message.getText(), 4000))
+                    .error(truncate(e.getMessage(), 1000))
+                    .failedAt(LocalDateTime.now())
+                    .build());
+            meterRegistry.counter("library.mail.deadletters").increment();
+        } catch (DataAccessException dataAccessException) {
+            log.error(" mail to {} could not be saved as dead letter ", recipient, dataAccessException);
+        }
+    }
+
+    private String truncate(String value, int length) {
+        return value == null || value.length() <= length ? value : value.substring(0, length);
+    }
+}
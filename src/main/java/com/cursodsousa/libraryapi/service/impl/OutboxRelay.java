@@ -0,0 +1,72 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
+import com.cursodsousa.libraryapi.service.OutboxSink;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Publica o outbox em lotes, em ordem de id, e apaga o que o destino aceitou. Se o destino falhar o lote
+ * fica na tabela e volta na próxima execução: a entrega é pelo menos uma vez, então quem consome ignora repetidos
+ * pelo id do evento. O id sai no insert e não no commit: uma transação mais lenta pode ficar visível depois de ids
+ * maiores já publicados, então não há ordem global entre empréstimos. A ordem vale por empréstimo, porque a
+ * devolução só acontece depois do commit do LOAN_CREATED; quem consome ordena por loanId, não pelo id do evento.
+ */
+@Component
+@Slf4j
+public class OutboxRelay {
+
+    static final String LOCK = "outbox-relay";
+
+    private final OutboxEventRepository repository;
+    private final OutboxSink sink;
+    private final ClusterCoordinator coordinator;
+    private final int batchSize;
+    private final Counter published;
+
+    public OutboxRelay(OutboxEventRepository repository,
+                       OutboxSink sink,
+                       ClusterCoordinator coordinator,
+                       MeterRegistry meterRegistry,
+                       @Value("${application.outbox.batch-size:100}") int batchSize) {
+        this.repository = repository;
+        this.sink = sink;
+        this.coordinator = coordinator;
+        this.batchSize = batchSize;
+        this.published = Counter.builder("library.outbox.published")
+                .description("Eventos do outbox entregues ao destino")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${application.outbox.relay-ms:1000}")
+    public void relay() {
+        try {
+            //tryLock a cada lote renova o lease enquanto houver eventos para publicar.
+            while (coordinator.tryLock(LOCK)) {
+                List<OutboxEvent> batch = repository.findByOrderById(PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) {
+                    return;
+                }
+                sink.publish(batch);
+                repository.deleteByIds(batch.stream().map(OutboxEvent::getId).collect(Collectors.toList()));
+                published.increment(batch.size());
+                if (batch.size() < batchSize) {
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn(" outbox relay stopped, unpublished events stay for the next run ", e);
+        } finally {
+            coordinator.unlock(LOCK);
+        }
+    }
+}
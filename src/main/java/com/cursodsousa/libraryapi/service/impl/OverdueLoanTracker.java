@@ -0,0 +1,118 @@
+package com.cursodsousa.libraryapi.service.impl;
+
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Vencimentos dos empréstimos ativos em memória, ordenados por data: pollDue acha os k empréstimos que vencem no dia
+ * em O(k), sem percorrer loan. É carregado do banco na subida e o refresh traz os empréstimos recentes, feitos neste
+ * ou em outro nó, então cada nó tem os mesmos ids. Devoluções e avisos de outros nós não saem daqui: quem consome
+ * faz o claim no banco (LoanService.claimReminders) antes de avisar. Vencimentos de dias anteriores são descartados,
+ * porque esses já ficam com o job da meia-noite.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OverdueLoanTracker {
+
+    private final LoanRepository repository;
+
+    private final TreeMap<LocalDate, Set<Long>> byDueDate = new TreeMap<>();
+    private final Set<Long> polled = new HashSet<>(); //Já entregues no dia de polledDay: o refresh não os devolve.
+    private LocalDate polledDay;
+    private LocalDate refreshedDay;
+    private int size;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        LocalDate today = LocalDate.now();
+        add(repository.findActiveDueDates(today), today);
+        log.info(" overdue tracker loaded {} active loans due from {} ", size(), today);
+    }
+
+    @Scheduled(initialDelayString = "${application.loans.overdue.refresh-ms:60000}",
+            fixedDelayString = "${application.loans.overdue.refresh-ms:60000}")
+    public void refresh() {
+        LocalDate today = LocalDate.now();
+        LocalDate since;
+        synchronized (this) {
+            discardBefore(today);
+            since = (refreshedDay == null ? today : refreshedDay).minusDays(1); //Um dia de folga para commits perto da virada.
+        }
+        add(repository.findActiveDueDatesLoanedSince(today, since), today);
+    }
+
+    public synchronized List<Long> pollDue(LocalDate day, int max) {
+        if (!day.equals(polledDay)) {
+            polled.clear();
+            polledDay = day;
+        }
+        discardBefore(day);
+        Set<Long> due = byDueDate.get(day);
+        if (due == null) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(Math.min(max, due.size()));
+        for (Iterator<Long> iterator = due.iterator(); iterator.hasNext() && ids.size() < max; ) {
+            Long id = iterator.next();
+            iterator.remove();
+            size--;
+            polled.add(id);
+            ids.add(id);
+        }
+        if (due.isEmpty()) {
+            byDueDate.remove(day);
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    public synchronized void requeue(LocalDate day, Collection<Long> ids) { //Devolve ids de um envio que falhou.
+        if (day.equals(polledDay)) {
+            polled.removeAll(ids);
+        }
+        Set<Long> due = byDueDate.computeIfAbsent(day, key -> new HashSet<>());
+        for (Long id : ids) {
+            if (due.add(id)) {
+                size++;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized void add(List<Object[]> dueDates, LocalDate today) { //[id, dueDate]
+        for (Object[] row : dueDates) {
+            Long id = (Long) row[0];
+            LocalDate dueDate = (LocalDate) row[1];
+            if (!(dueDate.equals(polledDay) && polled.contains(id))
+                    && byDueDate.computeIfAbsent(dueDate, day -> new HashSet<>()).add(id)) {
+                size++;
+            }
+        }
+        refreshedDay = today;
+    }
+
+    private void discardBefore(LocalDate day) {
+        while (!byDueDate.isEmpty() && byDueDate.firstKey().isBefore(day)) {
+            size -= byDueDate.pollFirstEntry().getValue().size();
+        }
+    }
+}
@@ -0,0 +1,3 @@
+-- Dia em que o primeiro aviso de atraso saiu. Gravado por um update condicional antes do envio, para que só um nó
+-- avise cada empréstimo; volta a nulo se o envio falhar.
+alter table loan add column reminded_at date;
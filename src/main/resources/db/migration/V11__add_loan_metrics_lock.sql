@@ -0,0 +1,2 @@
+-- Nó que conta os empréstimos ativos e atrasados para os gauges; os outros não repetem as contagens.
+insert into scheduler_lock (name) values ('loan-metrics');
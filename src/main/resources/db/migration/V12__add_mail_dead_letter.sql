@@ -0,0 +1,11 @@
+-- Emails que falharam em todas as tentativas do MailDispatcher. Ficam no banco para sobreviver a um restart
+-- e para serem vistos (e reenviados) de qualquer nó.
+create table mail_dead_letter (
+    id bigint generated by default as identity,
+    recipient varchar(255) not null,
+    subject varchar(255),
+    body varchar(4000),
+    error varchar(1000),
+    failed_at timestamp not null,
+    primary key (id)
+);
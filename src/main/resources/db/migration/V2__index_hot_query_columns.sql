@@ -0,0 +1,16 @@
+-- returned deixa de aceitar nulo: "returned is null or returned = false" não usa índice no H2.
+update loan set returned = false where returned is null;
+alter table loan alter column returned set default false;
+alter table loan alter column returned set not null;
+
+-- existsByIsbn / findByIsbn e unicidade do isbn.
+create unique index ux_book_isbn on book (isbn);
+
+-- existsByBookAndNotReturned e findByBook: filtra pelo livro e depois pela devolução.
+create index ix_loan_book_returned on loan (id_book, returned);
+
+-- findByLoanDateLessThanAndNotReturned / findLateLoansAfter: H2 não tem índice parcial, então returned vem primeiro.
+create index ix_loan_returned_loan_date on loan (returned, loan_date);
+
+-- findByBookIsbnOrCustomer: o lado "customer" do OR.
+create index ix_loan_customer on loan (customer);
@@ -0,0 +1,3 @@
+-- Versão otimista (@Version) de book e loan: barra atualizações concorrentes e é a base dos ETags das respostas.
+alter table book add column version bigint default 0 not null;
+alter table loan add column version bigint default 0 not null;
@@ -0,0 +1,6 @@
+-- Disponibilidade do livro gravada junto com os empréstimos, em vez de contar loan a cada consulta.
+alter table book add column available boolean default true not null;
+update book set available = false where id in (select active_book_id from loan where active_book_id is not null);
+
+-- GET /api/books?available= e o job de reconciliação.
+create index ix_book_available on book (available);
@@ -0,0 +1,25 @@
+-- Coordenação dos jobs agendados entre as instâncias que compartilham o banco.
+create table scheduler_node (
+    node_id varchar(100) not null,
+    heartbeat_at timestamp not null,
+    primary key (node_id)
+);
+
+create table scheduler_lock (
+    name varchar(100) not null,
+    owner varchar(100),
+    lease_until timestamp,
+    primary key (name)
+);
+
+-- Os locks são só atualizados (nunca inseridos) pelas instâncias, então a linha já nasce aqui.
+insert into scheduler_lock (name) values ('late-loans-mail');
+
+-- Cada partição do job de atrasados é um checkpoint próprio: faixa de ids, progresso e o nó que a processa.
+alter table job_checkpoint add column job varchar(100);
+alter table job_checkpoint add column first_id bigint;
+alter table job_checkpoint add column end_id bigint;
+alter table job_checkpoint add column owner varchar(100);
+alter table job_checkpoint add column lease_until timestamp;
+delete from job_checkpoint where job is null;
+create index ix_job_checkpoint_job on job_checkpoint (job, reference_date);
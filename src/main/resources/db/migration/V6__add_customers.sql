@@ -0,0 +1,21 @@
+-- Clientes normalizados. loan.customer e loan.customer_email continuam como cópia do nome e email usados no empréstimo.
+create table customer (
+    id bigint generated by default as identity,
+    name varchar(100) not null,
+    email varchar(255),
+    primary key (id),
+    constraint uk_customer_name unique (name)
+);
+
+insert into customer (name, email)
+    select customer, max(customer_email) from loan where customer is not null group by customer;
+
+alter table loan add column customer_id bigint;
+alter table loan add constraint fk_loan_customer foreign key (customer_id) references customer (id);
+update loan set customer_id = (select c.id from customer c where c.name = loan.customer);
+
+-- Filtro por cliente e GET /api/customers/{id}/loans: igualdade no cliente e o id para o cursor.
+create index ix_loan_customer_id on loan (customer_id, id);
+
+-- O filtro por nome agora passa pelo índice único de customer.
+drop index ix_loan_customer;
@@ -0,0 +1,8 @@
+-- Batimento gravado no primário e lido em cada réplica de leitura: a diferença entre os dois é o atraso da replicação.
+create table replica_heartbeat (
+    id int not null,
+    beat_at timestamp not null,
+    primary key (id)
+);
+
+insert into replica_heartbeat (id, beat_at) values (1, current_timestamp);
@@ -0,0 +1,13 @@
+-- Outbox dos eventos de empréstimo: gravado na transação do empréstimo, publicado e apagado pelo OutboxRelay.
+create table outbox_event (
+    id bigint generated by default as identity,
+    type varchar(40) not null,
+    loan_id bigint not null,
+    book_id bigint,
+    customer_id bigint,
+    occurred_at timestamp not null,
+    primary key (id)
+);
+
+-- Um nó publica por vez, para os eventos saírem na ordem em que foram gravados.
+insert into scheduler_lock (name) values ('outbox-relay');
@@ -0,0 +1,13 @@
+-- Prazo do empréstimo por livro ou por cliente (em dias); nulo usa application.loans.loan-days.
+alter table book add column loan_days int;
+alter table customer add column loan_days int;
+
+-- Data a partir da qual o empréstimo está atrasado, gravada no empréstimo. Os existentes seguem o prazo fixo de 4 dias.
+alter table loan add column due_date date;
+update loan set due_date = dateadd('DAY', 4, loan_date) where loan_date is not null;
+
+-- Job de atrasados, contagem de atrasados e carga do OverdueLoanTracker.
+create index ix_loan_returned_due_date on loan (returned, due_date, id);
+
+-- Nó que manda o primeiro aviso de atraso, assim que o empréstimo vence.
+insert into scheduler_lock (name) values ('newly-late-loans-mail');
@@ -0,0 +1,142 @@
+package com.cursodsousa.libraryapi.api.resource;
+
+import com.cursodsousa.libraryapi.config.AdmissionControlFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdmissionControlFilterTest {
+
+    SimpleMeterRegistry meterRegistry;
+    DefaultListableBeanFactory beanFactory;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("meterRegistry", meterRegistry);
+    }
+
+    @Test
+    @DisplayName("Deve recusar com 429 o cliente que passar da rajada, sem afetar os outros.")
+    public void rateLimitPerClientTest() throws Exception {
+        AdmissionControlFilter filter = filter(0.001, 2, 10);
+
+        assertThat(perform(filter, get("/api/books", "10.0.0.1")).getStatus()).isEqualTo(200);
+        assertThat(perform(filter, get("/api/books", "10.0.0.1")).getStatus()).isEqualTo(200);
+        MockHttpServletResponse rejected = perform(filter, get("/api/books", "10.0.0.1"));
+        MockHttpServletResponse otherClient = perform(filter, get("/api/books", "10.0.0.2"));
+
+        assertThat(rejected.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(Long.valueOf(rejected.getHeader(HttpHeaders.RETRY_AFTER))).isGreaterThan(1);
+        assertThat(rejected.getContentAsString()).isEqualTo("{\"errors\":[\"Too many requests\"]}");
+        assertThat(otherClient.getStatus()).isEqualTo(200);
+        assertThat(meterRegistry.get("library.admission.rejected").tag("reason", "rate").tag("endpoint", "read")
+                .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve limitar as criações de empréstimo em andamento sem afetar as leituras.")
+    public void concurrencyLimitTest() throws Exception {
+        AdmissionControlFilter filter = filter(1000, 1000, 10);
+        MockHttpServletResponse[] whileRunning = new MockHttpServletResponse[2];
+        AtomicInteger calls = new AtomicInteger();
+
+        //A segunda requisição chega enquanto a primeira ainda está no controller.
+        FilterChain slowLoan = (request, response) -> {
+            calls.incrementAndGet();
+            whileRunning[0] = perform(filter, post("/api/loans"));
+            whileRunning[1] = perform(filter, get("/api/loans", "127.0.0.1"));
+        };
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        filter.doFilter(post("/api/loans"), first, slowLoan);
+        MockHttpServletResponse after = perform(filter, post("/api/loans"));
+
+        assertThat(first.getStatus()).isEqualTo(200);
+        assertThat(whileRunning[0].getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(whileRunning[1].getStatus()).isEqualTo(200);
+        assertThat(after.getStatus()).isEqualTo(200); //O limite foi liberado ao fim da primeira.
+        assertThat(meterRegistry.get("library.admission.rejected").tag("reason", "concurrency").tag("endpoint", "loan-create")
+                .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve manter o limite ocupado até o fim de uma listagem assíncrona.")
+    public void asyncRequestHoldsPermitTest() throws Exception {
+        AdmissionControlFilter filter = filter(1000, 1000, 10, 1);
+        MockHttpServletRequest listing = get("/api/books", "127.0.0.1");
+        listing.setAsyncSupported(true);
+        filter.doFilter(listing, new MockHttpServletResponse(), (request, response) -> request.startAsync());
+
+        MockHttpServletResponse whileAsync = perform(filter, get("/api/books", "127.0.0.1"));
+        listing.getAsyncContext().complete();
+        MockHttpServletResponse afterAsync = perform(filter, get("/api/books", "127.0.0.1"));
+
+        assertThat(whileAsync.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(afterAsync.getStatus()).isEqualTo(200);
+        assertThat(meterRegistry.get("library.admission.inflight").tag("endpoint", "read").gauge().value()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve recusar com 400 listagens acima do size máximo e ignorar o que está fora da /api.")
+    public void maxPageSizeTest() throws Exception {
+        AdmissionControlFilter filter = filter(1000, 1000, 10);
+        MockHttpServletRequest large = get("/api/books", "127.0.0.1");
+        large.setParameter("size", "500");
+        MockHttpServletRequest allowed = get("/api/loans", "127.0.0.1");
+        allowed.setParameter("size", "10");
+        MockHttpServletRequest actuator = get("/actuator/health", "127.0.0.1");
+        actuator.setParameter("size", "500");
+        MockFilterChain chain = new MockFilterChain();
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        filter.doFilter(large, rejected, chain);
+
+        assertThat(rejected.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+        assertThat(chain.getRequest()).isNull();
+        assertThat(perform(filter, allowed).getStatus()).isEqualTo(200);
+        assertThat(perform(filter, actuator).getStatus()).isEqualTo(200);
+    }
+
+    private AdmissionControlFilter filter(double ratePerSecond, int burst, int maxPageSize) {
+        return filter(ratePerSecond, burst, maxPageSize, 10);
+    }
+
+    private AdmissionControlFilter filter(double ratePerSecond, int burst, int maxPageSize, int readLimit) {
+        AdmissionControlFilter filter = new AdmissionControlFilter(true, ratePerSecond, burst, maxPageSize, readLimit, 10, 1,
+                beanFactory.getBeanProvider(MeterRegistry.class));
+        filter.registerGauges();
+        return filter;
+    }
+
+    private static MockHttpServletResponse perform(AdmissionControlFilter filter, MockHttpServletRequest request) throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    private static MockHttpServletRequest get(String uri, String client) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        request.setRemoteAddr(client);
+        return request;
+    }
+
+    private static MockHttpServletRequest post(String uri) {
+        return new MockHttpServletRequest("POST", uri);
+    }
+}
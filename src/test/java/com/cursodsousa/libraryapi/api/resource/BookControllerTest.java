@@ -1,8 +1,12 @@
 package com.cursodsousa.libraryapi.api.resource;
 
+import com.cursodsousa.libraryapi.api.MediaTypes;
 import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.mapper.BookMapper;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.exception.BusinessException;
+import com.cursodsousa.libraryapi.service.BookBatchResult;
 import com.cursodsousa.libraryapi.service.BookService;
 import com.cursodsousa.libraryapi.service.LoanService;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -16,10 +20,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
@@ -27,7 +34,9 @@ import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilde
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -37,6 +46,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
 @WebMvcTest(controllers = BookController.class)
+@Import({BookMapper.class, LoanMapper.class, ConditionalGet.class})
 @AutoConfigureMockMvc
 public class BookControllerTest {
 
@@ -120,6 +130,58 @@ public class BookControllerTest {
                 .andExpect(jsonPath("errors[0]").value(mensagemErro));
     }
 
+    @Test
+    @DisplayName("POST - Deve criar livros em lote retornando um resultado por linha.")
+    public void createBooksInBatchTest() throws Exception {
+
+        BookDTO valid = createNewBook();
+        BookDTO invalid = BookDTO.builder().title("Sem autor").isbn("002").build();
+        BDDMockito.given(service.saveAll(Mockito.anyList()))
+                .willReturn(Collections.singletonList(BookBatchResult.created(0, "001", 10L)));
+
+        String json = new ObjectMapper().writeValueAsString(Arrays.asList(invalid, valid));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .post(BOOK_API.concat("/batch"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .content(json);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("[0].index").value(0))
+                .andExpect(jsonPath("[0].status").value("REJECTED"))
+                .andExpect(jsonPath("[1].index").value(1))
+                .andExpect(jsonPath("[1].status").value("CREATED"))
+                .andExpect(jsonPath("[1].id").value(10L))
+        ;
+    }
+
+    @Test
+    @DisplayName("POST - Deve criar livros em lote a partir de um stream NDJSON.")
+    public void createBooksInBatchFromNdjsonTest() throws Exception {
+
+        BDDMockito.given(service.saveAll(Mockito.anyList()))
+                .willReturn(Collections.singletonList(BookBatchResult.created(0, "001", 10L)));
+
+        String ndjson = new ObjectMapper().writeValueAsString(createNewBook()) + "\n{ invalid json\n";
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .post(BOOK_API.concat("/batch"))
+                .contentType(MediaTypes.APPLICATION_NDJSON_VALUE)
+                .content(ndjson);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaTypes.APPLICATION_NDJSON_VALUE))
+                .andExpect(content().string(Matchers.containsString("\"index\":0,\"isbn\":\"001\",\"id\":10,\"status\":\"CREATED\"")))
+                .andExpect(content().string(Matchers.containsString("\"index\":1,\"isbn\":null,\"id\":null,\"status\":\"REJECTED\"")))
+        ;
+    }
+
     @Test
     @DisplayName("GET - Deve obter informações de um livro.")
     public void getBookDetailsTest() throws Exception {
@@ -151,6 +213,28 @@ public class BookControllerTest {
         ;
     }
 
+    @Test
+    @DisplayName("GET - Deve responder 304 quando o ETag do livro não mudou e 200 quando a versão mudou.")
+    public void getBookNotModifiedTest() throws Exception {
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").version(2L).build();
+        BDDMockito.given(service.getById(1L)).willReturn(Optional.of(book));
+
+        String etag = mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1")))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "no-cache, private"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1")).header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().string(""));
+
+        book.setVersion(3L);
+        mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1")).header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("title").value("As aventuras"));
+    }
+
     @Test
     @DisplayName("GET - Deve retornar resource not found quando o livro procurado não existir.")
     public void bookNotFoundTest() throws Exception{
@@ -206,12 +290,13 @@ public class BookControllerTest {
         Long id = 1L;
         String json = new ObjectMapper().writeValueAsString(createNewBook());
 
-        Book updatingBook = Book.builder().id(1L).title("some title").author("some author").isbn("321").build();
+        Book updatingBook = Book.builder().id(1L).title("some title").author("some author").isbn("321").version(3L).build();
         BDDMockito.given(service.getById(id))
                 .willReturn(Optional.of(updatingBook));
 
-        Book updatedBook = Book.builder().id(id).author("Artur").title("As aventuras").isbn("321").build();
-        BDDMockito.given(service.update(updatingBook)).willReturn(updatedBook);
+        Book updatedBook = Book.builder().id(id).author("Artur").title("As aventuras").isbn("321").version(4L).build();
+        BDDMockito.given(service.update(Book.builder().id(id).author("Artur").title("As aventuras").isbn("321").build()))
+                .willReturn(updatedBook); //Sem If-Match não vai versão: o update usa a do banco.
 
         //act
         MockHttpServletRequestBuilder request = MockMvcRequestBuilders
@@ -228,9 +313,64 @@ public class BookControllerTest {
                 .andExpect(jsonPath("title").value(createNewBook().getTitle()))
                 .andExpect(jsonPath("author").value(createNewBook().getAuthor()))
                 .andExpect(jsonPath("isbn").value("321"))
+                .andExpect(header().string("ETag", ConditionalGet.bookTag(updatedBook)))
         ;
     }
 
+    @Test
+    @DisplayName("PUT - Deve atualizar o livro quando o If-Match for o ETag atual, conferindo a versão lida.")
+    public void updateBookIfMatchTest() throws Exception {
+        Long id = 1L;
+        Book currentBook = Book.builder().id(id).title("some title").author("some author").isbn("321").version(3L).build();
+        BDDMockito.given(service.getById(id)).willReturn(Optional.of(currentBook));
+        Book updatedBook = Book.builder().id(id).author("Artur").title("As aventuras").isbn("321").version(4L).build();
+        BDDMockito.given(service.update(Book.builder().id(id).author("Artur").title("As aventuras").isbn("321").version(3L).build()))
+                .willReturn(updatedBook);
+
+        mvc.perform(MockMvcRequestBuilders.put(BOOK_API.concat("/" + id))
+                        .content(new ObjectMapper().writeValueAsString(createNewBook()))
+                        .header("If-Match", ConditionalGet.bookTag(currentBook))
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", ConditionalGet.bookTag(updatedBook)));
+    }
+
+    @Test
+    @DisplayName("PUT - Deve retornar 412 quando o If-Match não for o ETag atual do livro.")
+    public void updateBookIfMatchFailedTest() throws Exception {
+        Long id = 1L;
+        Book currentBook = Book.builder().id(id).title("some title").author("some author").isbn("321").version(3L).build();
+        Book previousBook = Book.builder().id(id).version(2L).build();
+        BDDMockito.given(service.getById(id)).willReturn(Optional.of(currentBook));
+
+        mvc.perform(MockMvcRequestBuilders.put(BOOK_API.concat("/" + id))
+                        .content(new ObjectMapper().writeValueAsString(createNewBook()))
+                        .header("If-Match", ConditionalGet.bookTag(previousBook))
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed());
+
+        Mockito.verify(service, Mockito.never()).update(Mockito.any(Book.class));
+    }
+
+    @Test
+    @DisplayName("PUT - Deve retornar 412 quando o livro do cache já era antigo e a versão mudou no banco.")
+    public void updateBookIfMatchStaleCacheTest() throws Exception {
+        Long id = 1L;
+        Book cachedBook = Book.builder().id(id).title("some title").author("some author").isbn("321").version(3L).build();
+        BDDMockito.given(service.getById(id)).willReturn(Optional.of(cachedBook));
+        BDDMockito.given(service.update(Mockito.any(Book.class)))
+                .willThrow(new ObjectOptimisticLockingFailureException(Book.class, id));
+
+        mvc.perform(MockMvcRequestBuilders.put(BOOK_API.concat("/" + id))
+                        .content(new ObjectMapper().writeValueAsString(createNewBook()))
+                        .header("If-Match", ConditionalGet.bookTag(cachedBook))
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPreconditionFailed());
+    }
+
     @Test
     @DisplayName("PUT - Deve retornar 404 ao tentar atualizar um livro inexistente.")
     public void updateInexistentBookTest() throws Exception {
@@ -286,6 +426,187 @@ public class BookControllerTest {
         ;
     }
 
+    @Test
+    @DisplayName("Deve listar livros no formato compacto, sem o pageable do Spring.")
+    public void findBooksCompactTest() throws Exception{
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").build();
+        BDDMockito.given(service.find(Mockito.any(Book.class), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<Book>(Arrays.asList(book), PageRequest.of(2, 10), 21));
+
+        mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("?view=compact&page=2&size=10")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content[0].isbn").value("001"))
+                .andExpect(jsonPath("page").value(2))
+                .andExpect(jsonPath("totalElements").value(21))
+                .andExpect(jsonPath("pageable").doesNotExist());
+    }
+
+    @Test
+    @DisplayName("Deve filtrar apenas os livros disponíveis.")
+    public void findAvailableBooksTest() throws Exception{
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").available(true).build();
+        BDDMockito.given(service.find(Mockito.argThat(filter -> Boolean.TRUE.equals(filter.getAvailable())), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<Book>(Arrays.asList(book), PageRequest.of(0, 10), 1));
+
+        mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("?available=true&page=0&size=10")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", Matchers.hasSize(1)))
+                .andExpect(jsonPath("content[0].available").value(true));
+    }
+
+    @Test
+    @DisplayName("Deve responder 304 na listagem de livros quando a página não mudou.")
+    public void findBooksNotModifiedTest() throws Exception{
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").version(0L).build();
+        BDDMockito.given(service.find(Mockito.any(Book.class), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<Book>(Arrays.asList(book), PageRequest.of(0, 10), 1));
+
+        String etag = mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("?page=0&size=10")))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("?page=0&size=10")).header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    @DisplayName("Deve buscar livros pelo texto retornando a página ranqueada.")
+    public void searchBooksTest() throws Exception{
+        Book book = Book.builder().id(7L).title("As aventuras").author("Artur").isbn("001").build();
+
+        BDDMockito.given(service.search(Mockito.eq("aventras"), Mockito.any(Pageable.class)))
+                .willReturn(new PageImpl<Book>(Arrays.asList(book), PageRequest.of(0, 10), 1));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("/search?q=aventras&page=0&size=10"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", Matchers.hasSize(1)))
+                .andExpect(jsonPath("content[0].id").value(7))
+                .andExpect(jsonPath("totalElements").value(1));
+    }
+
+    @Test
+    @DisplayName("Deve retornar bad request ao buscar livros sem texto.")
+    public void searchBooksWithoutQueryTest() throws Exception{
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("/search"))
+                .param("q", " ")
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc.perform(request).andExpect(status().isBadRequest());
+
+        Mockito.verify(service, Mockito.never()).search(Mockito.anyString(), Mockito.any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Deve filtrar livros por cursor retornando o próximo cursor e sem total.")
+    public void findBooksByCursorTest() throws Exception{
+        Book book = Book.builder().id(7L).title("As aventuras").author("Artur").isbn("001").build();
+
+        BDDMockito.given(service.findAfter(Mockito.any(Book.class), Mockito.eq(5L), Mockito.eq(1)))
+                .willReturn(new SliceImpl<Book>(Arrays.asList(book), PageRequest.of(0, 1), true));
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?title=aventuras&size=1&after=" + CursorCodec.encode(5L)))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content", Matchers.hasSize(1)))
+                .andExpect(jsonPath("content[0].id").value(7L))
+                .andExpect(jsonPath("hasNext").value(true))
+                .andExpect(jsonPath("nextCursor").value(CursorCodec.encode(7L)))
+                .andExpect(jsonPath("totalElements").doesNotExist())
+        ;
+    }
+
+    @Test
+    @DisplayName("Deve responder 304 na listagem por cursor quando a página não mudou, como nas outras listagens.")
+    public void findBooksByCursorNotModifiedTest() throws Exception{
+        Book book = Book.builder().id(7L).title("As aventuras").author("Artur").isbn("001").version(0L).build();
+        BDDMockito.given(service.findAfter(Mockito.any(Book.class), Mockito.eq(5L), Mockito.eq(1)))
+                .willReturn(new SliceImpl<Book>(Arrays.asList(book), PageRequest.of(0, 1), true));
+        String url = BOOK_API.concat("?size=1&after=" + CursorCodec.encode(5L));
+
+        String etag = mvc.perform(MockMvcRequestBuilders.get(url))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvc.perform(MockMvcRequestBuilders.get(url).header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    @DisplayName("Deve retornar bad request para um cursor inválido.")
+    public void findBooksByInvalidCursorTest() throws Exception{
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(BOOK_API.concat("?after=@@@"))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform(request)
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("errors[0]").value("Invalid cursor"));
+    }
+
+    @Test
+    @DisplayName("Deve exportar o catálogo em NDJSON, uma linha por livro.")
+    public void exportBooksAsNdjsonTest() throws Exception{
+        Book book = Book.builder().id(1L).title("As aventuras").author("Artur").isbn("001").available(true).build();
+        BDDMockito.willAnswer(invocation -> {
+            Consumer<Book> consumer = invocation.getArgument(0);
+            consumer.accept(book);
+            consumer.accept(book);
+            return null;
+        }).given(service).forEachBook(Mockito.any());
+
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("/export")))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaTypes.APPLICATION_NDJSON_VALUE))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"books.ndjson\""))
+                .andExpect(content().string(
+                        "{\"id\":1,\"title\":\"As aventuras\",\"author\":\"Artur\",\"isbn\":\"001\",\"available\":true}\n" +
+                        "{\"id\":1,\"title\":\"As aventuras\",\"author\":\"Artur\",\"isbn\":\"001\",\"available\":true}\n"))
+        ;
+    }
+
+    @Test
+    @DisplayName("Deve exportar o catálogo em CSV escapando os valores.")
+    public void exportBooksAsCsvTest() throws Exception{
+        Book book = Book.builder().id(1L).title("Aventuras, volume \"1\"").author("Artur").isbn("001").build();
+        BDDMockito.willAnswer(invocation -> {
+            Consumer<Book> consumer = invocation.getArgument(0);
+            consumer.accept(book);
+            return null;
+        }).given(service).forEachBook(Mockito.any());
+
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("/export?format=csv")))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("text/csv"))
+                .andExpect(content().string("id,title,author,isbn\n1,\"Aventuras, volume \"\"1\"\"\",Artur,001\n"))
+        ;
+    }
+
+    @Test
+    @DisplayName("Deve retornar bad request para um formato de exportação desconhecido.")
+    public void exportBooksUnknownFormatTest() throws Exception{
+        mvc
+                .perform(MockMvcRequestBuilders.get(BOOK_API.concat("/export?format=xml")))
+                .andExpect(status().isBadRequest());
+
+        Mockito.verify(service, Mockito.never()).forEachBook(Mockito.any());
+    }
+
     private BookDTO createNewBook() {
         return BookDTO.builder().author("Artur").title("As aventuras").isbn("001").build();
     }
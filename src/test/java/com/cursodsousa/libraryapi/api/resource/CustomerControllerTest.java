@@ -0,0 +1,89 @@
+package com.cursodsousa.libraryapi.api.resource;
+
+import com.cursodsousa.libraryapi.api.mapper.BookMapper;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
+import com.cursodsousa.libraryapi.model.entity.Customer;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.service.CustomerService;
+import com.cursodsousa.libraryapi.service.LoanService;
+import com.cursodsousa.libraryapi.service.LoanServiceTest;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.BDDMockito;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+@WebMvcTest(controllers = CustomerController.class)
+@Import({BookMapper.class, LoanMapper.class, ConditionalGet.class})
+public class CustomerControllerTest {
+
+    static final String CUSTOMER_API = "/api/customers";
+
+    @Autowired
+    MockMvc mvc;
+
+    @MockBean
+    CustomerService customerService;
+
+    @MockBean
+    LoanService loanService;
+
+    @Test
+    @DisplayName("Deve listar o histórico do cliente por cursor")
+    public void loansByCustomerTest() throws Exception {
+        Customer customer = Customer.builder().id(7l).name("Fulano").build();
+        Loan first = LoanServiceTest.createLoan();
+        first.setId(3l);
+        first.setBorrower(customer);
+        Loan second = LoanServiceTest.createLoan();
+        second.setId(5l);
+        second.setBorrower(customer);
+        BDDMockito.given( customerService.getById(7l) ).willReturn( Optional.of(customer) );
+        BDDMockito.given( loanService.getLoansByCustomer(customer, 2l, 2) )
+                .willReturn( new SliceImpl<Loan>( Arrays.asList(first, second), PageRequest.of(0, 2), true ) );
+
+        mvc
+                .perform( MockMvcRequestBuilders.get(CUSTOMER_API.concat("/7/loans?size=2&after=" + CursorCodec.encode(2l)))
+                        .accept(MediaType.APPLICATION_JSON) )
+                .andExpect( status().isOk() )
+                .andExpect( header().exists("ETag") )
+                .andExpect( jsonPath("content", Matchers.hasSize(2)) )
+                .andExpect( jsonPath("content[0].customerId").value(7) )
+                .andExpect( jsonPath("hasNext").value(true) )
+                .andExpect( jsonPath("nextCursor").value(CursorCodec.encode(5l)) )
+        ;
+    }
+
+    @Test
+    @DisplayName("Deve retornar 404 para o histórico de um cliente inexistente")
+    public void loansByUnknownCustomerTest() throws Exception {
+        BDDMockito.given( customerService.getById(Mockito.anyLong()) ).willReturn( Optional.empty() );
+
+        mvc
+                .perform( MockMvcRequestBuilders.get(CUSTOMER_API.concat("/1/loans")).accept(MediaType.APPLICATION_JSON) )
+                .andExpect( status().isNotFound() );
+
+        Mockito.verify(loanService, Mockito.never()).getLoansByCustomer(Mockito.any(), Mockito.any(), Mockito.anyInt());
+    }
+}
@@ -2,14 +2,21 @@ package com.cursodsousa.libraryapi.api.resource;
 
 import com.cursodsousa.libraryapi.api.dto.LoanDTO;
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.api.dto.ReturnLoansDTO;
 import com.cursodsousa.libraryapi.api.dto.ReturnedLoanDTO;
 import com.cursodsousa.libraryapi.exception.BusinessException;
+import com.cursodsousa.libraryapi.api.mapper.BookMapper;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
+import com.cursodsousa.libraryapi.config.HttpFormatsConfig;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.entity.Loan;
 import com.cursodsousa.libraryapi.service.BookService;
 import com.cursodsousa.libraryapi.service.LoanService;
 import com.cursodsousa.libraryapi.service.LoanServiceTest;
+import com.cursodsousa.libraryapi.service.ReturnLoanResult;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -20,9 +27,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
@@ -33,8 +42,10 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static com.cursodsousa.libraryapi.api.resource.BookControllerTest.BOOK_API;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -42,6 +53,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @ActiveProfiles("test")
 @AutoConfigureMockMvc
 @WebMvcTest(controllers = LoanController.class)
+@Import({BookMapper.class, LoanMapper.class, ConditionalGet.class, HttpFormatsConfig.class})
 public class LoanControllerTest {
 
     static final String LOAN_API = "/api/loans";
@@ -146,6 +158,41 @@ public class LoanControllerTest {
         Mockito.verify(loanService, Mockito.times(1)).update(loan);
     }
 
+    @Test
+    @DisplayName("Deve devolver empréstimos em lote retornando um resultado por item.")
+    public void returnBooksInBatchTest() throws Exception{
+        ReturnLoansDTO dto = ReturnLoansDTO.builder().ids(Arrays.asList(1L, 2L)).isbns(Arrays.asList("123")).build();
+        BDDMockito.given(loanService.returnLoans(dto.getIds(), dto.getIsbns())).willReturn(Arrays.asList(
+                ReturnLoanResult.ofId(1L, ReturnLoanResult.Status.RETURNED),
+                ReturnLoanResult.ofId(2L, ReturnLoanResult.Status.NOT_FOUND),
+                ReturnLoanResult.ofIsbn("123", 7L, ReturnLoanResult.Status.RETURNED)));
+
+        mvc.perform(
+                patch(LOAN_API.concat("/returned"))
+                        .accept(MediaType.APPLICATION_JSON)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(new ObjectMapper().writeValueAsString(dto))
+        )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("$", Matchers.hasSize(3)) )
+                .andExpect( jsonPath("[1].status").value("NOT_FOUND") )
+                .andExpect( jsonPath("[2].id").value(7) );
+
+        Mockito.verify(loanService, Mockito.never()).update(Mockito.any(Loan.class));
+    }
+
+    @Test
+    @DisplayName("Deve retornar bad request ao devolver em lote sem ids nem isbns.")
+    public void returnBooksInBatchWithoutItemsTest() throws Exception{
+        mvc.perform(
+                patch(LOAN_API.concat("/returned"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}")
+        ).andExpect( status().isBadRequest() );
+
+        Mockito.verify(loanService, Mockito.never()).returnLoans(Mockito.any(), Mockito.any());
+    }
+
     @Test
     @DisplayName("Deve retornar 404 quando tentar devolver um livro inexistente.")
     public void returnInexistentBookTest() throws Exception{
@@ -191,7 +238,121 @@ public class LoanControllerTest {
                 .andExpect( jsonPath("totalElements").value(1) )
                 .andExpect( jsonPath("pageable.pageSize").value(10) )
                 .andExpect( jsonPath("pageable.pageNumber").value(0))
+                .andExpect( jsonPath("content[0].id").value(id) )
+                .andExpect( jsonPath("content[0].customer").value(loan.getCustomer()) )
+                .andExpect( jsonPath("content[0].isbn").value(book.getIsbn()) )
+                .andExpect( jsonPath("content[0].book.isbn").value(book.getIsbn()) )
+        ;
+    }
+
+    @Test
+    @DisplayName("Deve listar empréstimos no formato compacto, sem o livro aninhado e sem o pageable.")
+    public void findLoansCompactTest() throws Exception{
+        Loan loan = LoanServiceTest.createLoan();
+        loan.setId(1l);
+        loan.getBook().setIsbn("321");
+        BDDMockito.given( loanService.find( Mockito.any(LoanFilterDTO.class), Mockito.any(Pageable.class)) )
+                .willReturn( new PageImpl<Loan>( Arrays.asList(loan), PageRequest.of(0,10), 1 ) );
+
+        mvc.perform( MockMvcRequestBuilders.get(LOAN_API.concat("?isbn=321&view=compact&page=0&size=10")) )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("content[0].id").value(1) )
+                .andExpect( jsonPath("content[0].bookId").value(1) )
+                .andExpect( jsonPath("content[0].isbn").value("321") )
+                .andExpect( jsonPath("content[0].book").doesNotExist() )
+                .andExpect( jsonPath("totalElements").value(1) )
+                .andExpect( jsonPath("size").value(10) )
+                .andExpect( jsonPath("pageable").doesNotExist() );
+    }
+
+    @Test
+    @DisplayName("Deve serializar a listagem de empréstimos em CBOR quando o Accept pedir.")
+    public void findLoansAsCborTest() throws Exception{
+        Loan loan = LoanServiceTest.createLoan();
+        loan.setId(1l);
+        BDDMockito.given( loanService.find( Mockito.any(LoanFilterDTO.class), Mockito.any(Pageable.class)) )
+                .willReturn( new PageImpl<Loan>( Arrays.asList(loan), PageRequest.of(0,10), 1 ) );
+
+        byte[] body = mvc.perform( MockMvcRequestBuilders.get(LOAN_API.concat("?customer=Fulano&view=compact&page=0&size=10"))
+                        .accept(MediaType.APPLICATION_CBOR) )
+                .andExpect( status().isOk() )
+                .andExpect( content().contentType(MediaType.APPLICATION_CBOR) )
+                .andExpect( header().string("Vary", Matchers.containsString("Accept")) )
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode page = new ObjectMapper(new CBORFactory()).readTree(body);
+        assertThat(page.get("totalElements").asLong()).isEqualTo(1);
+        assertThat(page.get("content").get(0).get("customer").asText()).isEqualTo(loan.getCustomer());
+        assertThat(page.get("content").get(0).get("loanDate").asText()).isEqualTo(loan.getLoanDate().toString()); //Mesmo ObjectMapper do JSON.
+    }
+
+    @Test
+    @DisplayName("Deve responder 304 na listagem de empréstimos até o livro do empréstimo mudar.")
+    public void findLoansNotModifiedTest() throws Exception{
+        Loan loan = LoanServiceTest.createLoan();
+        loan.setId(1l);
+        loan.setVersion(0l);
+        Book book = Book.builder().id(1l).isbn("321").version(0l).build();
+        loan.setBook(book);
+        BDDMockito.given( loanService.find( Mockito.any(LoanFilterDTO.class), Mockito.any(Pageable.class)) )
+                .willReturn( new PageImpl<Loan>( Arrays.asList(loan), PageRequest.of(0,10), 1 ) );
+
+        String etag = mvc.perform( MockMvcRequestBuilders.get(LOAN_API.concat("?isbn=321&page=0&size=10")) )
+                .andExpect( status().isOk() )
+                .andReturn().getResponse().getHeader("ETag");
+
+        mvc.perform( MockMvcRequestBuilders.get(LOAN_API.concat("?isbn=321&page=0&size=10")).header("If-None-Match", etag) )
+                .andExpect( status().isNotModified() );
+
+        book.setVersion(1l); //O DTO do empréstimo traz o livro.
+        mvc.perform( MockMvcRequestBuilders.get(LOAN_API.concat("?isbn=321&page=0&size=10")).header("If-None-Match", etag) )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("content", Matchers.hasSize(1)) );
+    }
+
+    @Test
+    @DisplayName("Deve filtrar empréstimos por cursor a partir da primeira página")
+    public void findLoansByCursorTest() throws Exception{
+        Loan loan = LoanServiceTest.createLoan();
+        loan.setId(3l);
+
+        BDDMockito.given( loanService.find( Mockito.any(LoanFilterDTO.class), Mockito.any(Pageable.class)) )
+                .willThrow( new IllegalStateException("Não deve usar a paginação com contagem") );
+        BDDMockito.given( loanService.findAfter( Mockito.any(LoanFilterDTO.class), Mockito.isNull(), Mockito.eq(20)) )
+                .willReturn( new SliceImpl<Loan>( Arrays.asList(loan), PageRequest.of(0, 20), false ) );
+
+        MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+                .get(LOAN_API.concat("?customer=Fulano&after="))
+                .accept(MediaType.APPLICATION_JSON);
+
+        mvc
+                .perform( request )
+                .andExpect( status().isOk() )
+                .andExpect( jsonPath("content", Matchers.hasSize(1)) )
+                .andExpect( jsonPath("content[0].id").value(3) )
+                .andExpect( jsonPath("hasNext").value(false) )
+                .andExpect( jsonPath("nextCursor").doesNotExist() )
+        ;
+    }
+
+    @Test
+    @DisplayName("Deve exportar o histórico de empréstimos em CSV sem aninhar o livro")
+    public void exportLoansAsCsvTest() throws Exception{
+        Loan loan = Loan.builder().id(2l).customer("Fulano").customerEmail("fulano@email.com")
+                .loanDate(LocalDate.of(2020, 1, 10)).returned(true)
+                .book(Book.builder().id(1l).isbn("123").build()).build();
+        BDDMockito.willAnswer(invocation -> {
+            Consumer<Loan> consumer = invocation.getArgument(0);
+            consumer.accept(loan);
+            return null;
+        }).given(loanService).forEachLoan(Mockito.any());
+
+        mvc
+                .perform( MockMvcRequestBuilders.get(LOAN_API.concat("/export?format=csv")) )
+                .andExpect( status().isOk() )
+                .andExpect( content().string("id,customer,email,loanDate,returned,bookId,isbn\n" +
+                        "2,Fulano,fulano@email.com,2020-01-10,true,1,123\n") )
         ;
     }
 
-}
\ No newline at end of file
+}
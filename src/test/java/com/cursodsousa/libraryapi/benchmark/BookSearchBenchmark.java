@@ -0,0 +1,128 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.service.impl.BookSearchIndex;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.domain.PageRequest;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara a busca por título do BookServiceImpl.find (Example com CONTAINING e ignoreCase,
+ * ou seja lower(title) like '%x%' mais a consulta de contagem) com o BookSearchIndex.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BookSearchBenchmark {
+
+    static final String[] WORDS = {"aventura", "misterio", "castelo", "dragao", "viagem", "segredo", "cidade",
+            "noite", "jardim", "guerra", "memorias", "oceano", "floresta", "tempo", "sombra", "estrela"};
+    static final String EXAMPLE_PAGE = "select b.id, b.title, b.author, b.isbn from book b"
+            + " where lower(b.title) like ? escape '\\' limit 20";
+    static final String EXAMPLE_COUNT = "select count(b.id) from book b where lower(b.title) like ? escape '\\'";
+
+    @Param({"1000000"})
+    private int books;
+
+    private Connection connection;
+    private PreparedStatement examplePage;
+    private PreparedStatement exampleCount;
+    private BookSearchIndex index;
+
+    @Setup
+    public void setUp() throws SQLException {
+        String url = "jdbc:h2:mem:search-benchmark;DB_CLOSE_DELAY=-1";
+        Flyway.configure().dataSource(url, "sa", "").load().migrate();
+        connection = DriverManager.getConnection(url, "sa", "");
+        index = new BookSearchIndex(null);
+
+        Random random = new Random(42);
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement("insert into book (id, title, author, isbn) values (?, ?, ?, ?)")) {
+            for (long id = 1; id <= books; id++) {
+                Book book = Book.builder().id(id)
+                        .title(word(random) + " " + word(random) + " " + id)
+                        .author("Autor " + word(random))
+                        .isbn("isbn-" + id)
+                        .build();
+                insert.setLong(1, id);
+                insert.setString(2, book.getTitle());
+                insert.setString(3, book.getAuthor());
+                insert.setString(4, book.getIsbn());
+                insert.addBatch();
+                if (id % 1000 == 0) {
+                    insert.executeBatch();
+                }
+                index.index(book);
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        examplePage = connection.prepareStatement(EXAMPLE_PAGE);
+        exampleCount = connection.prepareStatement(EXAMPLE_COUNT);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.createStatement().execute("drop all objects");
+        connection.close();
+    }
+
+    @Benchmark
+    public void exampleContaining(Blackhole blackhole) throws SQLException {
+        String pattern = "%" + randomWord() + " " + ThreadLocalRandom.current().nextInt(1, books + 1) + "%";
+        examplePage.setString(1, pattern);
+        try (ResultSet resultSet = examplePage.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+            }
+        }
+        exampleCount.setString(1, pattern);
+        try (ResultSet resultSet = exampleCount.executeQuery()) {
+            resultSet.next();
+            blackhole.consume(resultSet.getLong(1));
+        }
+    }
+
+    @Benchmark
+    public Object searchIndex() {
+        return index.search(randomWord() + " " + ThreadLocalRandom.current().nextInt(1, books + 1), PageRequest.of(0, 20));
+    }
+
+    @Benchmark
+    public Object searchIndexWithTypo() {
+        String word = randomWord();
+        String typo = word.substring(0, 2) + word.substring(3); //Remove uma letra.
+        return index.search(typo + " " + ThreadLocalRandom.current().nextInt(1, books + 1), PageRequest.of(0, 20));
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String randomWord() {
+        return WORDS[ThreadLocalRandom.current().nextInt(WORDS.length)];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BookSearchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,165 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mede as consultas quentes dos repositórios num H2 com muitos registros,
+ * com o schema só da V1 (sem índices) e com a V2 aplicada.
+ * Os planos de execução de cada consulta são impressos no setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBenchmark {
+
+    static final String EXISTS_BY_ISBN = "select count(*) from book b where b.isbn = ?";
+    static final String EXISTS_BY_BOOK_AND_NOT_RETURNED =
+            "select count(*) from loan l where l.id_book = ? and l.returned = false";
+    static final String LATE_LOANS =
+            "select l.id from loan l where l.returned = false and l.loan_date <= ? order by l.id";
+    static final String BY_ISBN_OR_CUSTOMER =
+            "select l.id from loan l join book b on b.id = l.id_book where b.isbn = ? or l.customer = ?";
+
+    @Param({"1", "2"})
+    private String schemaVersion;
+
+    @Param({"100000"})
+    private int books;
+
+    private Connection connection;
+    private PreparedStatement existsByIsbn;
+    private PreparedStatement existsByBookAndNotReturned;
+    private PreparedStatement lateLoans;
+    private PreparedStatement byIsbnOrCustomer;
+
+    @Setup
+    public void setUp() throws SQLException {
+        String url = "jdbc:h2:mem:index-benchmark-" + schemaVersion + ";DB_CLOSE_DELAY=-1";
+        Flyway.configure().dataSource(url, "sa", "").target(schemaVersion).load().migrate();
+        connection = DriverManager.getConnection(url, "sa", "");
+        populate();
+
+        existsByIsbn = connection.prepareStatement(EXISTS_BY_ISBN);
+        existsByBookAndNotReturned = connection.prepareStatement(EXISTS_BY_BOOK_AND_NOT_RETURNED);
+        lateLoans = connection.prepareStatement(LATE_LOANS);
+        byIsbnOrCustomer = connection.prepareStatement(BY_ISBN_OR_CUSTOMER);
+
+        explain(EXISTS_BY_ISBN, "isbn-1");
+        explain(EXISTS_BY_BOOK_AND_NOT_RETURNED, 1L);
+        explain(LATE_LOANS, Date.valueOf(LocalDate.now().minusDays(4)));
+        explain(BY_ISBN_OR_CUSTOMER, "isbn-1", "Cliente 1");
+    }
+
+    private void explain(String sql, Object... params) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("explain " + sql)) {
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(i + 1, params[i]);
+            }
+            try (ResultSet plan = statement.executeQuery()) {
+                plan.next();
+                System.out.println("V" + schemaVersion + " plan: " + plan.getString(1).replaceAll("\\s+", " "));
+            }
+        }
+    }
+
+    private void populate() throws SQLException {
+        //Dois empréstimos por livro: um devolvido e um ativo, 1% deles atrasados.
+        connection.setAutoCommit(false);
+        try (PreparedStatement book = connection.prepareStatement("insert into book (id, title, author, isbn) values (?, ?, ?, ?)");
+             PreparedStatement loan = connection.prepareStatement(
+                     "insert into loan (customer, customer_email, id_book, loan_date, returned) values (?, ?, ?, ?, ?)")) {
+            LocalDate today = LocalDate.now();
+            for (int i = 1; i <= books; i++) {
+                book.setLong(1, i);
+                book.setString(2, "Titulo " + i);
+                book.setString(3, "Autor " + i);
+                book.setString(4, "isbn-" + i);
+                book.addBatch();
+                for (int returned = 0; returned < 2; returned++) {
+                    loan.setString(1, "Cliente " + i);
+                    loan.setString(2, "cliente" + i + "@email.com");
+                    loan.setLong(3, i);
+                    loan.setDate(4, Date.valueOf(i % 100 == 0 ? today.minusDays(10) : today.minusDays(returned)));
+                    loan.setBoolean(5, returned == 1);
+                    loan.addBatch();
+                }
+                if (i % 1000 == 0) {
+                    book.executeBatch();
+                    loan.executeBatch();
+                }
+            }
+            book.executeBatch();
+            loan.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+        connection.createStatement().execute("analyze");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.createStatement().execute("drop all objects");
+        connection.close();
+    }
+
+    @Benchmark
+    public void existsByIsbn(Blackhole blackhole) throws SQLException {
+        existsByIsbn.setString(1, "isbn-" + randomBook());
+        consume(existsByIsbn, blackhole);
+    }
+
+    @Benchmark
+    public void existsByBookAndNotReturned(Blackhole blackhole) throws SQLException {
+        existsByBookAndNotReturned.setLong(1, randomBook());
+        consume(existsByBookAndNotReturned, blackhole);
+    }
+
+    @Benchmark
+    public void lateLoans(Blackhole blackhole) throws SQLException {
+        //Varia o parâmetro para o H2 não devolver o resultado da execução anterior.
+        lateLoans.setDate(1, Date.valueOf(LocalDate.now().minusDays(ThreadLocalRandom.current().nextInt(4, 10))));
+        consume(lateLoans, blackhole);
+    }
+
+    @Benchmark
+    public void byIsbnOrCustomer(Blackhole blackhole) throws SQLException {
+        int book = randomBook();
+        byIsbnOrCustomer.setString(1, "isbn-" + book);
+        byIsbnOrCustomer.setString(2, "Cliente " + book);
+        consume(byIsbnOrCustomer, blackhole);
+    }
+
+    private int randomBook() {
+        return ThreadLocalRandom.current().nextInt(1, books + 1);
+    }
+
+    private void consume(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                blackhole.consume(resultSet.getLong(1));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,86 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.api.dto.BookDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.mapper.BookMapper;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compara o ModelMapper (antigo bean da aplicação) com os mappers explícitos
+ * convertendo uma página inteira, como fazem as listagens dos controllers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    @Param({"20", "1000"})
+    private int pageSize;
+
+    private ModelMapper modelMapper;
+    private BookMapper bookMapper;
+    private LoanMapper loanMapper;
+    private List<Book> books;
+    private List<Loan> loans;
+
+    @Setup
+    public void setUp() {
+        modelMapper = new ModelMapper();
+        bookMapper = new BookMapper();
+        loanMapper = new LoanMapper(bookMapper);
+        books = new ArrayList<>(pageSize);
+        loans = new ArrayList<>(pageSize);
+        for (long i = 1; i <= pageSize; i++) {
+            Book book = Book.builder().id(i).title("Titulo " + i).author("Autor " + i).isbn("isbn-" + i).build();
+            books.add(book);
+            loans.add(Loan.builder().id(i).book(book).customer("Cliente " + i)
+                    .customerEmail("cliente" + i + "@email.com").loanDate(LocalDate.now()).build());
+        }
+        modelMapper.map(books.get(0), BookDTO.class); //Resolve os TypeMaps fora da medição.
+        modelMapper.map(loans.get(0), LoanDTO.class);
+    }
+
+    @Benchmark
+    public List<BookDTO> booksWithModelMapper() {
+        return books.stream().map(book -> modelMapper.map(book, BookDTO.class)).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<BookDTO> booksWithBookMapper() {
+        return books.stream().map(bookMapper::toDto).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<LoanDTO> loansWithModelMapper() {
+        return loans.stream().map(loan -> {
+            LoanDTO loanDTO = modelMapper.map(loan, LoanDTO.class);
+            loanDTO.setBook(modelMapper.map(loan.getBook(), BookDTO.class));
+            return loanDTO;
+        }).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<LoanDTO> loansWithLoanMapper() {
+        return loans.stream().map(loanMapper::toDto).collect(Collectors.toList());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MapperBenchmark.class.getSimpleName()).build()).run();
+    }
+}
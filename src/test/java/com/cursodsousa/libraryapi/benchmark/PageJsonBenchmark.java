@@ -0,0 +1,64 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.mapper.BookMapper;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * O que o LoanController.find faz depois da consulta: converte a página de Loan
+ * em Page<LoanDTO> e serializa em JSON, com o ObjectMapper configurado como no Spring Boot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageJsonBenchmark {
+
+    @Param({"20", "1000"})
+    private int pageSize;
+
+    private ObjectMapper objectMapper;
+    private LoanMapper loanMapper;
+    private List<Loan> loans;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        loanMapper = new LoanMapper(new BookMapper());
+        loans = new ArrayList<>(pageSize);
+        for (long i = 1; i <= pageSize; i++) {
+            Book book = Book.builder().id(i).title("Titulo " + i).author("Autor " + i).isbn("isbn-" + i).build();
+            loans.add(Loan.builder().id(i).book(book).customer("Cliente " + i)
+                    .customerEmail("cliente" + i + "@email.com").loanDate(LocalDate.now()).returned(false).build());
+        }
+    }
+
+    @Benchmark
+    public byte[] loanPageToJson() throws JsonProcessingException {
+        List<LoanDTO> content = loans.stream().map(loanMapper::toDto).collect(Collectors.toList());
+        return objectMapper.writeValueAsBytes(new PageImpl<>(content, PageRequest.of(0, pageSize), 10_000));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PageJsonBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,99 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.api.dto.CompactPageDTO;
+import com.cursodsousa.libraryapi.api.dto.LoanDTO;
+import com.cursodsousa.libraryapi.api.mapper.BookMapper;
+import com.cursodsousa.libraryapi.api.mapper.LoanMapper;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Página de 1000 empréstimos nos formatos do LoanController: JSON completo (Page<LoanDTO>), JSON compacto
+ * (?view=compact) e o compacto em CBOR e Smile. O tempo mede conversão + serialização (e o gzip, no segundo
+ * benchmark); o tamanho em bytes de cada formato, puro e com gzip, é impresso no setUp.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    static final int PAGE_SIZE = 1000;
+
+    @Param({"json", "json-compact", "cbor-compact", "smile-compact"})
+    private String format;
+
+    private ObjectMapper objectMapper;
+    private LoanMapper loanMapper;
+    private Page<Loan> page;
+
+    @Setup
+    public void setUp() throws IOException {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        if (format.startsWith("cbor")) {
+            builder.factory(new CBORFactory());
+        } else if (format.startsWith("smile")) {
+            builder.factory(new SmileFactory());
+        }
+        objectMapper = builder.build();
+        loanMapper = new LoanMapper(new BookMapper());
+        List<Loan> loans = new ArrayList<>(PAGE_SIZE);
+        for (long i = 1; i <= PAGE_SIZE; i++) {
+            Book book = Book.builder().id(i).title("Titulo " + i).author("Autor " + i).isbn("isbn-" + i).available(false).build();
+            loans.add(Loan.builder().id(i).book(book).customer("Cliente " + i)
+                    .customerEmail("cliente" + i + "@email.com").loanDate(LocalDate.now()).returned(false).build());
+        }
+        page = new PageImpl<>(loans, PageRequest.of(0, PAGE_SIZE), 10_000);
+
+        byte[] body = serialize();
+        System.out.printf("%n%s: %d bytes, %d bytes com gzip%n", format, body.length, gzip(body).length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        if (format.equals("json")) {
+            List<LoanDTO> content = page.getContent().stream().map(loanMapper::toDto).collect(Collectors.toList());
+            return objectMapper.writeValueAsBytes(new PageImpl<>(content, page.getPageable(), page.getTotalElements()));
+        }
+        return objectMapper.writeValueAsBytes(CompactPageDTO.of(page, loanMapper::toFlatDto));
+    }
+
+    @Benchmark
+    public byte[] serializeAndGzip() throws IOException { //O que o Tomcat faz com server.compression ligado.
+        return gzip(serialize());
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PayloadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
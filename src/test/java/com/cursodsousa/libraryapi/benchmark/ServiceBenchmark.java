@@ -0,0 +1,133 @@
+package com.cursodsousa.libraryapi.benchmark;
+
+import com.cursodsousa.libraryapi.LibraryApiApplication;
+import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
+import com.cursodsousa.libraryapi.exception.BusinessException;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.service.BookService;
+import com.cursodsousa.libraryapi.service.LoanService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Caminhos quentes dos serviços com a aplicação inteira de pé sobre um H2 populado:
+ * os primeiros LOANED_BOOKS livros têm empréstimo ativo e os demais ficam livres
+ * para o loanSave, que volta a liberá-los a cada iteração.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark {
+
+    static final int BOOKS = 50_000;
+    static final int LOANED_BOOKS = 10_000;
+    static final int CUSTOMERS = 1_000;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+    private LoanService loanService;
+    private JdbcTemplate jdbcTemplate;
+    private List<Book> books;
+    private int nextFreeBook;
+
+    @Setup
+    public void setUp() {
+        //Argumentos de linha de comando: properties() só define padrões, que o application.properties sobrescreve.
+        context = new SpringApplicationBuilder(LibraryApiApplication.class).run(
+                "--server.port=0", //O Swagger exige o contexto web; a porta aleatória evita conflito.
+                "--spring.datasource.url=jdbc:h2:mem:service-benchmark;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+                "--spring.boot.admin.client.enabled=false",
+                "--logging.level.root=WARN",
+                "--logging.level.org.hibernate.engine.jdbc.spi.SqlExceptionHelper=OFF"); //loanSaveAlreadyLoaned viola o índice de propósito.
+        bookService = context.getBean(BookService.class);
+        loanService = context.getBean(LoanService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+        BookRepository bookRepository = context.getBean(BookRepository.class);
+        LoanRepository loanRepository = context.getBean(LoanRepository.class);
+        books = new ArrayList<>(BOOKS);
+        for (int from = 0; from < BOOKS; from += 1000) {
+            books.addAll(bookRepository.saveAll(IntStream.range(from, from + 1000)
+                    .mapToObj(i -> Book.builder().title("Titulo " + i).author("Autor " + (i % 100)).isbn("isbn-" + i).build())
+                    .collect(Collectors.toList())));
+        }
+        for (int from = 0; from < LOANED_BOOKS; from += 1000) {
+            loanRepository.saveAll(books.subList(from, from + 1000).stream()
+                    .map(book -> Loan.builder().book(book).customer("Cliente " + (book.getId() % CUSTOMERS))
+                            .customerEmail("cliente@email.com").loanDate(LocalDate.now()).build())
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void releaseFreeBooks() { //Devolve os empréstimos criados no loanSave da iteração anterior.
+        jdbcTemplate.update("update loan set returned = true, active_book_id = null where id_book > ?",
+                books.get(LOANED_BOOKS - 1).getId());
+        nextFreeBook = LOANED_BOOKS;
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object bookFind() {
+        Book filter = Book.builder().title("titulo " + ThreadLocalRandom.current().nextInt(BOOKS)).build();
+        return bookService.find(filter, PageRequest.of(0, 20));
+    }
+
+    @Benchmark
+    public Object loanFind() {
+        LoanFilterDTO filter = LoanFilterDTO.builder()
+                .isbn("isbn-" + ThreadLocalRandom.current().nextInt(BOOKS))
+                .customer("Cliente " + ThreadLocalRandom.current().nextInt(CUSTOMERS))
+                .build();
+        return loanService.find(filter, PageRequest.of(0, 20));
+    }
+
+    @Benchmark
+    public Object loanSave() {
+        Book book = books.get(nextFreeBook);
+        nextFreeBook = nextFreeBook + 1 < BOOKS ? nextFreeBook + 1 : LOANED_BOOKS;
+        try {
+            return loanService.save(Loan.builder().book(book).customer("Cliente").loanDate(LocalDate.now()).build());
+        } catch (BusinessException e) { //Só acontece se a iteração esgotar os livros livres.
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object loanSaveAlreadyLoaned() {
+        Book book = books.get(ThreadLocalRandom.current().nextInt(LOANED_BOOKS));
+        try {
+            return loanService.save(Loan.builder().book(book).customer("Cliente").loanDate(LocalDate.now()).build());
+        } catch (BusinessException e) {
+            return e;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ServiceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -1,18 +1,29 @@
 package com.cursodsousa.libraryapi.model.repository;
 
 import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import javax.persistence.PersistenceException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("teste")
@@ -40,6 +51,18 @@ public class BookRepositoryTest {
         assertThat(exists).isTrue();
     }
 
+    @Test
+    @DisplayName("Deve impedir dois livros com o mesmo isbn pelo índice único")
+    public void uniqueIsbnTest(){
+        entityManager.persist(createNewBook("123"));
+        entityManager.persist(createNewBook("123"));
+
+        Throwable exception = catchThrowable(() -> entityManager.flush());
+
+        assertThat(exception).isInstanceOf(PersistenceException.class)
+                .hasStackTraceContaining("UX_BOOK_ISBN");
+    }
+
     public static Book createNewBook(String isbn) {
         return Book.builder().title("Aventuras").author("Fulano").isbn(isbn).build();
     }
@@ -100,4 +123,89 @@ public class BookRepositoryTest {
         assertThat(deletedBook).isNull();
     }
 
+    @Test
+    @DisplayName("Deve retornar apenas os isbns já cadastrados dentre os informados.")
+    public void findExistingIsbnsTest(){
+        //arranje
+        entityManager.persist(createNewBook("123"));
+        entityManager.persist(createNewBook("456"));
+
+        //act
+        List<String> existing = repository.findExistingIsbns(Arrays.asList("123", "456", "789"));
+
+        //assert
+        assertThat(existing).containsExactlyInAnyOrder("123", "456");
+    }
+
+    @Test
+    @DisplayName("Deve buscar livros filtrados a partir do último id lido.")
+    public void findSliceAfterTest(){
+        //arranje
+        Book first = createNewBook("1");
+        Book second = createNewBook("2");
+        Book third = createNewBook("3");
+        Book other = Book.builder().title("Outro").author("Ciclano").isbn("4").build();
+        entityManager.persist(first);
+        entityManager.persist(second);
+        entityManager.persist(other);
+        entityManager.persist(third);
+
+        //act
+        Slice<Book> result = repository.findSliceAfter(first.getId(), "AVENT", null, null, null,
+                PageRequest.of(0, 1, Sort.by("id")));
+
+        //assert
+        assertThat(result.getContent()).containsExactly(second);
+        assertThat(result.hasNext()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Deve encontrar e corrigir livros com disponibilidade diferente dos empréstimos ativos.")
+    public void reconcileAvailabilityTest(){
+        Book loaned = createNewBook("1"); //Disponível, mas com empréstimo ativo.
+        Book returned = createNewBook("2"); //Indisponível, sem empréstimo ativo.
+        Book consistent = createNewBook("3");
+        entityManager.persist(loaned);
+        entityManager.persist(returned);
+        entityManager.persist(consistent);
+        returned.setAvailable(false);
+        entityManager.persist(Loan.builder().book(loaned).customer("Fulano").loanDate(LocalDate.now()).build());
+        entityManager.flush();
+
+        List<Book> wronglyAvailable = repository.findAvailableWithActiveLoan(PageRequest.of(0, 10));
+        List<Book> wronglyUnavailable = repository.findUnavailableWithoutActiveLoan(PageRequest.of(0, 10));
+        int unavailable = repository.markUnavailableIfLoaned(Arrays.asList(loaned.getId(), consistent.getId()));
+        int available = repository.markAvailableIfNotLoaned(Arrays.asList(returned.getId(), consistent.getId()));
+
+        assertThat(wronglyAvailable).extracting(Book::getId).containsExactly(loaned.getId());
+        assertThat(wronglyUnavailable).extracting(Book::getId).containsExactly(returned.getId());
+        assertThat(unavailable).isEqualTo(1);
+        assertThat(available).isEqualTo(1);
+        assertThat(repository.findAvailableWithActiveLoan(PageRequest.of(0, 10))).isEmpty();
+        assertThat(repository.findUnavailableWithoutActiveLoan(PageRequest.of(0, 10))).isEmpty();
+        assertThat(repository.findById(consistent.getId()).get().getVersion()).isZero();
+        assertThat(repository.findById(loaned.getId()).get().getVersion()).isZero(); //Disponibilidade fica fora do @Version.
+        assertThat(repository.findAvailableById(loaned.getId())).contains(false);
+        assertThat(repository.findAvailableById(returned.getId())).contains(true);
+    }
+
+    @Test
+    @DisplayName("Deve percorrer todos os livros em ordem de id através de um stream.")
+    public void streamAllTest(){
+        //arranje
+        Book first = createNewBook("1");
+        Book second = createNewBook("2");
+        entityManager.persist(first);
+        entityManager.persist(second);
+
+        //act
+        List<Long> ids;
+        try (Stream<Book> books = repository.streamAll()) {
+            ids = books.map(Book::getId).collect(Collectors.toList());
+        }
+
+        //assert
+        assertThat(ids).containsExactly(first.getId(), second.getId());
+    }
+
 }
@@ -1,7 +1,10 @@
 package com.cursodsousa.libraryapi.model.repository;
 
 import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Customer;
 import com.cursodsousa.libraryapi.model.entity.Loan;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -10,10 +13,15 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static com.cursodsousa.libraryapi.model.repository.BookRepositoryTest.createNewBook;
@@ -21,7 +29,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 @ExtendWith({SpringExtension.class})
 @ActiveProfiles("test")
-@DataJpaTest
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
 public class LoanRepositoryTest {
 
     @Autowired
@@ -44,42 +52,245 @@ public class LoanRepositoryTest {
     }
 
     @Test
-    @DisplayName("Deve buscar empréstimo pelo isbn do livro ou customer.")
-    public void findByBookIsbnOrCustomerTest() {
-        Loan loan = createAndPersistLoan(LocalDate.now());
+    @DisplayName("Deve contar os empréstimos do livro feitos pelo cliente.")
+    public void countByBookAndBorrowerTest() {
+        Customer customer = createAndPersistCustomer("Ciclano");
+        Book book = createNewBook("123");
+        entityManager.persist(book);
+        Book other = createNewBook("456");
+        entityManager.persist(other);
+        entityManager.persist(Loan.builder().book(book).customer("Ciclano").borrower(customer)
+                .loanDate(LocalDate.now()).returned(true).build());
+        entityManager.persist(Loan.builder().book(other).customer("Ciclano").borrower(customer)
+                .loanDate(LocalDate.now()).build());
+        entityManager.persist(Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build());
 
-        Page<Loan> result = repository.findByBookIsbnOrCustomer("123", "Fulano", PageRequest.of(0, 10));
+        long count = repository.countByBookAndBorrower(book, customer);
 
-        assertThat(result.getContent()).hasSize(1);
-        assertThat(result.getContent()).contains(loan);
-        assertThat(result.getPageable().getPageSize()).isEqualTo(10);
-        assertThat(result.getPageable().getPageNumber()).isEqualTo(0);
-        assertThat(result.getTotalElements()).isEqualTo(1);
+        assertThat(count).isEqualTo(1);
     }
 
     @Test
     @DisplayName("Deve obter empréstimos cuja data emprestimo for menor ou igual a tres dias atras e nao retornados")
-    public void findByLoanDateLessThanAndNotReturnedTest(){
+    public void findByDueDateLessThanAndNotReturnedTest(){
         Loan loan = createAndPersistLoan( LocalDate.now().minusDays(5) );
 
-        List<Loan> result = repository.findByLoanDateLessThanAndNotReturned(LocalDate.now().minusDays(4));
+        List<Loan> result = repository.findByDueDateLessThanAndNotReturned(LocalDate.now());
 
         assertThat(result).hasSize(1).contains(loan);
     }
 
     @Test
     @DisplayName("Deve retornar vazio quando não houver emprestimos atrasados.")
-    public void notFindByLoanDateLessThanAndNotReturnedTest(){
+    public void notFindByDueDateLessThanAndNotReturnedTest(){
         Loan loan = createAndPersistLoan( LocalDate.now());
 
-        List<Loan> result = repository.findByLoanDateLessThanAndNotReturned(LocalDate.now().minusDays(4));
+        List<Loan> result = repository.findByDueDateLessThanAndNotReturned(LocalDate.now());
 
         assertThat(result).isEmpty();
     }
 
-    public Loan createAndPersistLoan(LocalDate loanDate) {
+    @Test
+    @DisplayName("Deve listar empréstimos do cliente com seus livros usando apenas a consulta da página e a de contagem.")
+    public void findByBorrowerStatementCountTest() {
+        Customer customer = createAndPersistCustomer("Fulano");
+        for (int i = 0; i < 3; i++) {
+            Book book = createNewBook("isbn-" + i);
+            entityManager.persist(book);
+            entityManager.persist(Loan.builder().book(book).customer("Fulano").borrower(customer).loanDate(LocalDate.now()).build());
+        }
+        Statistics statistics = clearContextAndStatistics();
+
+        Page<Loan> result = repository.findByBorrower(customer, PageRequest.of(0, 2));
+        result.getContent().forEach(loan -> loan.getBook().getTitle());
+
+        assertThat(result.getContent()).hasSize(2);
+        assertThat(result.getTotalElements()).isEqualTo(3);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve listar empréstimos de um livro usando apenas a consulta da página e a de contagem.")
+    public void findByBookStatementCountTest() {
         Book book = createNewBook("123");
         entityManager.persist(book);
+        for (int i = 0; i < 3; i++) {
+            entityManager.persist(Loan.builder().book(book).customer("Fulano " + i)
+                    .loanDate(LocalDate.now()).returned(true).build());
+        }
+        Statistics statistics = clearContextAndStatistics();
+
+        Page<Loan> result = repository.findByBook(book, PageRequest.of(0, 2));
+        result.getContent().forEach(loan -> loan.getBook().getTitle());
+
+        assertThat(result.getContent()).hasSize(2);
+        assertThat(result.getTotalElements()).isEqualTo(3);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve paginar o histórico do cliente por cursor sem carregar o cliente.")
+    public void findSliceByBorrowerAfterTest() {
+        Customer customer = createAndPersistCustomer("Fulano");
+        Customer other = createAndPersistCustomer("Ciclano");
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Book book = createNewBook("isbn-" + i);
+            entityManager.persist(book);
+            ids.add(entityManager.persist(Loan.builder().book(book).customer("Fulano").borrower(customer)
+                    .loanDate(LocalDate.now()).returned(true).build()).getId());
+            entityManager.persist(Loan.builder().book(book).customer("Ciclano").borrower(other)
+                    .loanDate(LocalDate.now()).returned(true).build());
+        }
+        Statistics statistics = clearContextAndStatistics();
+
+        Slice<Loan> firstSlice = repository.findSliceByBorrowerAfter(0L, customer, PageRequest.of(0, 2, Sort.by("id")));
+        Slice<Loan> secondSlice = repository.findSliceByBorrowerAfter(firstSlice.getContent().get(1).getId(), customer,
+                PageRequest.of(0, 2, Sort.by("id")));
+
+        assertThat(firstSlice.getContent()).extracting(Loan::getId).containsExactly(ids.get(0), ids.get(1));
+        assertThat(firstSlice.hasNext()).isTrue();
+        assertThat(secondSlice.getContent()).extracting(Loan::getId).containsExactly(ids.get(2));
+        assertThat(secondSlice.hasNext()).isFalse();
+        assertThat(firstSlice.getContent().get(0).getBorrower().getId()).isEqualTo(customer.getId()); //Id do proxy, sem consulta.
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve obter empréstimos atrasados em blocos a partir do último id lido.")
+    public void findLateLoansAfterTest() {
+        Loan first = createAndPersistLoan(LocalDate.now().minusDays(5), "1");
+        Loan second = createAndPersistLoan(LocalDate.now().minusDays(6), "2");
+        Loan third = createAndPersistLoan(LocalDate.now().minusDays(7), "3");
+        createAndPersistLoan(LocalDate.now(), "4");
+
+        List<Loan> firstChunk = repository.findLateLoansAfter(LocalDate.now(), 0L, Long.MAX_VALUE, PageRequest.of(0, 2));
+        List<Loan> secondChunk = repository.findLateLoansAfter(LocalDate.now(),
+                firstChunk.get(1).getId(), Long.MAX_VALUE, PageRequest.of(0, 2));
+        List<Loan> bounded = repository.findLateLoansAfter(LocalDate.now(), 0L, second.getId(), PageRequest.of(0, 5));
+
+        assertThat(firstChunk).containsExactly(first, second);
+        assertThat(secondChunk).containsExactly(third);
+        assertThat(bounded).containsExactly(first, second);
+    }
+
+    @Test
+    @DisplayName("Deve obter o menor e o maior id dos empréstimos atrasados.")
+    public void findLateLoanIdRangeTest() {
+        Loan first = createAndPersistLoan(LocalDate.now().minusDays(5), "1");
+        createAndPersistLoan(LocalDate.now(), "2");
+        Loan third = createAndPersistLoan(LocalDate.now().minusDays(7), "3");
+
+        Object[] range = repository.findLateLoanIdRange(LocalDate.now()).get(0);
+        Object[] empty = repository.findLateLoanIdRange(LocalDate.now().minusDays(26)).get(0);
+
+        assertThat(range).containsExactly(first.getId(), third.getId());
+        assertThat(empty).containsExactly(null, null);
+    }
+
+    @Test
+    @DisplayName("Deve listar id e vencimento dos empréstimos ativos que ainda vão vencer.")
+    public void findActiveDueDatesTest() {
+        Loan active = createAndPersistLoan(LocalDate.now().minusDays(1), "1");
+        createAndPersistLoan(LocalDate.now().minusDays(5), "2");
+        Loan returned = createAndPersistLoan(LocalDate.now(), "3");
+        returned.setReturned(true);
+        Loan recent = createAndPersistLoan(LocalDate.now(), "4");
+        entityManager.flush();
+
+        List<Object[]> dueDates = repository.findActiveDueDates(LocalDate.now());
+        List<Object[]> recentDueDates = repository.findActiveDueDatesLoanedSince(LocalDate.now(), LocalDate.now());
+
+        assertThat(active.getDueDate()).isEqualTo(LocalDate.now().plusDays(Loan.DEFAULT_LOAN_DAYS - 1)); //Prazo padrão no @PrePersist.
+        assertThat(dueDates).extracting(row -> row[0]).containsExactlyInAnyOrder(active.getId(), recent.getId());
+        assertThat(recentDueDates).hasSize(1);
+        assertThat(recentDueDates.get(0)).containsExactly(recent.getId(), recent.getDueDate());
+    }
+
+    @Test
+    @DisplayName("Deve contar os empréstimos ativos e os atrasados.")
+    public void countActiveAndLateLoansTest() {
+        createAndPersistLoan(LocalDate.now().minusDays(5), "1");
+        createAndPersistLoan(LocalDate.now(), "2");
+        Loan returned = createAndPersistLoan(LocalDate.now().minusDays(6), "3");
+        returned.setReturned(true);
+        entityManager.flush();
+
+        assertThat(repository.countActive()).isEqualTo(2);
+        assertThat(repository.countLateLoans(LocalDate.now())).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve devolver em um único update apenas os empréstimos ativos, liberando o livro.")
+    public void markReturnedTest() {
+        Loan active = createAndPersistLoan(LocalDate.now(), "1");
+        Loan returned = createAndPersistLoan(LocalDate.now(), "2");
+        returned.setReturned(true);
+        entityManager.flush();
+
+        List<Object[]> activeByIsbn = repository.findActiveLoanIdsByIsbns(Arrays.asList("1", "2"));
+        List<Loan> locked = repository.findActiveByIdsForUpdate(Arrays.asList(active.getId(), returned.getId()));
+        int updated = repository.markReturned(Arrays.asList(active.getId(), returned.getId()));
+
+        assertThat(activeByIsbn).hasSize(1);
+        assertThat(activeByIsbn.get(0)).containsExactly("1", active.getId());
+        assertThat(locked).extracting(Loan::getId).containsExactly(active.getId());
+        assertThat(updated).isEqualTo(1);
+        assertThat(repository.findById(active.getId()).get().getReturned()).isTrue();
+        assertThat(repository.findById(active.getId()).get().getVersion()).isEqualTo(1L); //Muda o ETag das listagens.
+        assertThat(repository.existsByBookAndNotReturned(active.getBook())).isFalse();
+
+        //active_book_id foi limpo: o livro pode ser emprestado de novo.
+        Loan newLoan = Loan.builder().book(active.getBook()).customer("Ciclano").loanDate(LocalDate.now()).build();
+        repository.saveAndFlush(newLoan);
+        assertThat(newLoan.getId()).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Deve marcar o aviso de atraso uma única vez e desfazer a marcação do dia.")
+    public void markRemindedTest() {
+        Loan active = createAndPersistLoan(LocalDate.now(), "1");
+        Loan returned = createAndPersistLoan(LocalDate.now(), "2");
+        returned.setReturned(true);
+        entityManager.flush();
+        List<Long> ids = Arrays.asList(active.getId(), returned.getId());
+
+        List<Loan> notReminded = repository.findActiveNotRemindedByIds(ids);
+        int claimed = repository.markReminded(Collections.singletonList(active.getId()), LocalDate.now());
+        int claimedAgain = repository.markReminded(Collections.singletonList(active.getId()), LocalDate.now());
+
+        assertThat(notReminded).extracting(Loan::getId).containsExactly(active.getId());
+        assertThat(claimed).isEqualTo(1);
+        assertThat(claimedAgain).isZero(); //Outro nó não avisa de novo.
+        assertThat(repository.findActiveNotRemindedByIds(ids)).isEmpty();
+        assertThat(repository.findById(active.getId()).get().getVersion()).isZero();
+
+        assertThat(repository.releaseReminded(Collections.singletonList(active.getId()), LocalDate.now())).isEqualTo(1);
+        assertThat(repository.findActiveNotRemindedByIds(ids)).extracting(Loan::getId).containsExactly(active.getId());
+    }
+
+    private Statistics clearContextAndStatistics() {
+        entityManager.flush();
+        entityManager.clear();
+        Statistics statistics = entityManager.getEntityManager()
+                .getEntityManagerFactory()
+                .unwrap(SessionFactory.class)
+                .getStatistics();
+        statistics.clear();
+        return statistics;
+    }
+
+    public Customer createAndPersistCustomer(String name) {
+        return entityManager.persist(Customer.builder().name(name).email(name.toLowerCase() + "@email.com").build());
+    }
+
+    public Loan createAndPersistLoan(LocalDate loanDate) {
+        return createAndPersistLoan(loanDate, "123");
+    }
+
+    public Loan createAndPersistLoan(LocalDate loanDate, String isbn) {
+        Book book = createNewBook(isbn);
+        entityManager.persist(book);
 
         Loan loan = Loan.builder().book(book).customer("Fulano").loanDate(loanDate).build();
         entityManager.persist(loan);
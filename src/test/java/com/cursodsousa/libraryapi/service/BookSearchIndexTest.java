@@ -0,0 +1,139 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.service.impl.BookSearchIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookSearchIndexTest {
+
+    BookSearchIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        index = new BookSearchIndex(null);
+        index.index(book(1L, "O Senhor dos Anéis", "J. R. R. Tolkien"));
+        index.index(book(2L, "O Hobbit", "J. R. R. Tolkien"));
+        index.index(book(3L, "Harry Potter e a Pedra Filosofal", "J. K. Rowling"));
+        index.index(book(4L, "Biografia de Tolkien", "Humphrey Carpenter"));
+    }
+
+    @Test
+    @DisplayName("Deve ranquear acima os livros com o termo no título.")
+    public void titleRankedAboveAuthorTest() {
+        Page<Book> result = index.search("tolkien", PageRequest.of(0, 10));
+
+        assertThat(result.getTotalElements()).isEqualTo(3);
+        assertThat(result.getContent().get(0).getId()).isEqualTo(4L);
+        assertThat(result.getContent()).extracting(Book::getId).containsExactly(4L, 1L, 2L);
+    }
+
+    @Test
+    @DisplayName("Deve encontrar livros por prefixo e ignorando acentos e maiúsculas.")
+    public void prefixAndAccentTest() {
+        assertThat(index.search("ANEIS", PageRequest.of(0, 10)).getContent()).extracting(Book::getId).containsExactly(1L);
+        assertThat(index.search("hob", PageRequest.of(0, 10)).getContent()).extracting(Book::getId).containsExactly(2L);
+    }
+
+    @Test
+    @DisplayName("Deve tolerar erros de digitação.")
+    public void typoTest() {
+        assertThat(index.search("hary poter", PageRequest.of(0, 10)).getContent()).extracting(Book::getId).containsExactly(3L);
+        assertThat(index.search("filosfoal", PageRequest.of(0, 10)).getContent()).extracting(Book::getId).containsExactly(3L);
+        assertThat(index.search("xyzw", PageRequest.of(0, 10)).getContent()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve exigir que todos os termos casem.")
+    public void allTermsTest() {
+        assertThat(index.search("hobbit tolkien", PageRequest.of(0, 10)).getContent()).extracting(Book::getId).containsExactly(2L);
+        assertThat(index.search("hobbit rowling", PageRequest.of(0, 10)).getContent()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Deve refletir atualizações e remoções de livros.")
+    public void updateAndRemoveTest() {
+        index.index(book(2L, "O Silmarillion", "J. R. R. Tolkien"));
+        index.remove(3L);
+
+        assertThat(index.search("hobbit", PageRequest.of(0, 10)).getContent()).isEmpty();
+        assertThat(index.search("silmarillion", PageRequest.of(0, 10)).getContent()).extracting(Book::getId).containsExactly(2L);
+        assertThat(index.search("harry", PageRequest.of(0, 10)).getContent()).isEmpty();
+        assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve reaproveitar o documento quando o texto não muda e compactar os que as atualizações descartam.")
+    public void reindexKeepsIndexBoundedTest() {
+        for (int i = 0; i < 3000; i++) {
+            Book book = book(2L, "O Hobbit", "J. R. R. Tolkien");
+            book.setAvailable(i % 2 == 0); //Como em cada empréstimo e devolução.
+            index.index(book);
+        }
+        assertThat(documents()).hasSize(4);
+        assertThat(index.search("hobbit", PageRequest.of(0, 10)).getContent())
+                .extracting(Book::getAvailable).containsExactly(false);
+
+        for (int i = 0; i < 3000; i++) {
+            index.index(book(2L, "O Hobbit " + i, "J. R. R. Tolkien"));
+        }
+        assertThat(documents().size()).isLessThan(2100);
+        assertThat(index.search("hobbit", PageRequest.of(0, 10)).getContent()).extracting(Book::getTitle).containsExactly("O Hobbit 2999");
+        assertThat(index.size()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Deve trazer no rebuild os livros gravados por outros nós sem perder as mudanças locais feitas durante a leitura.")
+    public void rebuildTest() {
+        BookRepository repository = Mockito.mock(BookRepository.class);
+        index = new BookSearchIndex(repository);
+        ReflectionTestUtils.setField(index, "entityManager", Mockito.mock(EntityManager.class));
+        index.index(book(1L, "O Senhor dos Anéis", "J. R. R. Tolkien"));
+        index.index(book(3L, "Harry Potter e a Pedra Filosofal", "J. K. Rowling"));
+
+        Mockito.when(repository.streamAll()).thenReturn(Stream.of(
+                book(1L, "O Senhor dos Anéis", "J. R. R. Tolkien"),
+                book(3L, "Harry Potter e a Pedra Filosofal", "J. K. Rowling"),
+                book(5L, "Dom Casmurro", "Machado de Assis")) //Gravado em outro nó.
+                .peek(book -> {
+                    if (book.getId() == 3L) { //Apagado neste nó enquanto o rebuild lia o banco.
+                        index.remove(3L);
+                    }
+                }));
+
+        index.rebuild();
+
+        assertThat(index.search("casmurro", PageRequest.of(0, 10)).getContent()).extracting(Book::getId).containsExactly(5L);
+        assertThat(index.search("harry", PageRequest.of(0, 10)).getContent()).isEmpty();
+        assertThat(index.size()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve paginar o resultado ranqueado.")
+    public void pagingTest() {
+        Page<Book> result = index.search("tolkien", PageRequest.of(1, 2));
+
+        assertThat(result.getTotalElements()).isEqualTo(3);
+        assertThat(result.getContent()).extracting(Book::getId).containsExactly(2L);
+    }
+
+    private List<?> documents() {
+        return (List<?>) ReflectionTestUtils.getField(ReflectionTestUtils.getField(index, "segment"), "docs");
+    }
+
+    private Book book(Long id, String title, String author) {
+        return Book.builder().id(id).title(title).author(author).isbn("isbn-" + id).build();
+    }
+}
@@ -0,0 +1,151 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.config.CacheConfig;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.service.impl.BookSearchIndex;
+import com.cursodsousa.libraryapi.service.impl.BookServiceImpl;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.Optional;
+
+import static com.cursodsousa.libraryapi.model.repository.BookRepositoryTest.createNewBook;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ActiveProfiles("test")
+@DataJpaTest
+@Import({BookServiceImpl.class, CacheConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED) //O cache de segundo nível só é atualizado no commit.
+public class BookSecondLevelCacheTest {
+
+    @Autowired
+    BookService service;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @MockBean
+    BookSearchIndex searchIndex;
+
+    SessionFactory sessionFactory;
+    Statistics statistics;
+
+    @BeforeEach
+    public void setUp() {
+        sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        statistics = sessionFactory.getStatistics();
+        sessionFactory.getCache().evictAllRegions();
+        statistics.clear();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        loanRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+    }
+
+    @Test
+    @DisplayName("Deve ler o livro do cache de segundo nível sem ir ao banco.")
+    public void findByIdFromCacheTest() {
+        Book book = bookRepository.save(createNewBook("123"));
+        statistics.clear();
+
+        bookRepository.findById(book.getId());
+        bookRepository.findById(book.getId());
+
+        assertThat(statistics.getSecondLevelCacheHitCount()).isEqualTo(2);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve atualizar o cache de segundo nível ao atualizar o livro pelo serviço.")
+    public void updateRefreshesCacheTest() {
+        Book book = bookRepository.save(createNewBook("123"));
+
+        book.setTitle("Novo título");
+        service.update(book);
+        statistics.clear();
+
+        Optional<Book> found = bookRepository.findById(book.getId());
+
+        assertThat(found.get().getTitle()).isEqualTo("Novo título");
+        assertThat(statistics.getSecondLevelCacheHitCount()).isEqualTo(1);
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve remover o livro do cache de segundo nível ao deletar pelo serviço.")
+    public void deleteEvictsCacheTest() {
+        Book book = bookRepository.save(createNewBook("123"));
+        assertThat(sessionFactory.getCache().containsEntity(Book.class, book.getId())).isTrue();
+
+        service.delete(book);
+        statistics.clear();
+
+        //No READ_WRITE a entrada vira uma trava no lugar do livro, então a leitura não acha nada no cache.
+        assertThat(bookRepository.findById(book.getId())).isEmpty();
+        assertThat(statistics.getSecondLevelCacheHitCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve usar o cache de consultas no findByIsbn e invalidá-lo quando a tabela muda.")
+    public void findByIsbnQueryCacheTest() {
+        Book book = bookRepository.save(createNewBook("123"));
+        statistics.clear();
+
+        bookRepository.findByIsbn("123");
+        bookRepository.findByIsbn("123");
+
+        assertThat(statistics.getQueryCacheMissCount()).isEqualTo(1);
+        assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+
+        book.setIsbn("456");
+        service.update(book);
+
+        assertThat(bookRepository.findByIsbn("123")).isEmpty(); //Resultado antigo descartado pelo timestamp da tabela.
+        assertThat(bookRepository.findByIsbn("456")).isPresent();
+    }
+
+    @Test
+    @DisplayName("Deve invalidar a coleção Book.loans em cache quando um empréstimo é criado.")
+    public void loansCollectionCacheTest() {
+        Book book = bookRepository.save(createNewBook("123"));
+        loanRepository.save(Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build());
+        assertThat(countLoans(book.getId())).isEqualTo(1); //Carrega e guarda a coleção.
+
+        Loan second = loanRepository.save(Loan.builder().book(book).customer("Ciclano").loanDate(LocalDate.now()).returned(true).build());
+
+        assertThat(countLoans(book.getId())).isEqualTo(2);
+        assertThat(second.getId()).isNotNull();
+    }
+
+    private int countLoans(Long bookId) {
+        return transactionTemplate.execute(status -> bookRepository.findById(bookId).get().getLoans().size());
+    }
+}
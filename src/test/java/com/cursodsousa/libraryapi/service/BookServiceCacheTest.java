@@ -0,0 +1,169 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.config.CacheConfig;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.service.impl.BookSearchIndex;
+import com.cursodsousa.libraryapi.service.impl.BookServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.cache.CacheAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.persistence.EntityManagerFactory;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(classes = {BookServiceImpl.class, CacheConfig.class}, properties = {
+        "spring.cache.type=caffeine",
+        "spring.cache.cache-names=booksByIsbn,booksById",
+        "spring.cache.caffeine.spec=maximumSize=100,expireAfterWrite=10m,recordStats"
+})
+@ImportAutoConfiguration(CacheAutoConfiguration.class)
+@ActiveProfiles("test")
+public class BookServiceCacheTest {
+
+    @Autowired
+    BookService service;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @MockBean
+    BookRepository repository;
+
+    @MockBean
+    EntityManagerFactory entityManagerFactory;
+
+    @MockBean
+    BookSearchIndex searchIndex;
+
+    @BeforeEach
+    public void setUp(){
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+    }
+
+    @Test
+    @DisplayName("Deve buscar o livro pelo isbn no banco apenas uma vez.")
+    public void cachedGetBookByIsbnTest(){
+        Book book = createBook();
+        when(repository.findByIsbn("123")).thenReturn(Optional.of(book));
+
+        Optional<Book> first = service.getBookByIsbn("123");
+        Optional<Book> second = service.getBookByIsbn("123");
+
+        assertThat(first).contains(book);
+        assertThat(second).contains(book);
+        verify(repository, times(1)).findByIsbn("123");
+    }
+
+    @Test
+    @DisplayName("Não deve guardar em cache um isbn inexistente.")
+    public void notCachedMissingIsbnTest(){
+        when(repository.findByIsbn("123")).thenReturn(Optional.empty());
+
+        service.getBookByIsbn("123");
+        service.getBookByIsbn("123");
+
+        verify(repository, times(2)).findByIsbn("123");
+    }
+
+    @Test
+    @DisplayName("Deve devolver uma cópia a cada chamada, sem expor o livro guardado no cache.")
+    public void cachedCopiesTest(){
+        when(repository.findById(1L)).thenReturn(Optional.of(createBook()));
+
+        Book first = service.getById(1L).get();
+        first.setTitle("Alterado sem salvar");
+        Book second = service.getById(1L).get();
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getTitle()).isEqualTo("As aventuras");
+        verify(repository, times(1)).findById(1L);
+    }
+
+    @Test
+    @DisplayName("Deve invalidar o cache ao atualizar um livro.")
+    public void evictOnUpdateTest(){
+        Book book = createBook();
+        Book renamed = Book.builder().id(1L).isbn("123").author("Fulano").title("Novo titulo").build();
+        when(repository.findById(1L)).thenReturn(Optional.of(book));
+        when(repository.findByIsbn("123")).thenReturn(Optional.of(book));
+        when(repository.save(book)).thenReturn(book);
+
+        service.getById(1L);
+        service.getBookByIsbn("123");
+        service.update(renamed);
+
+        assertThat(service.getById(1L).get().getTitle()).isEqualTo("Novo titulo");
+        assertThat(service.getBookByIsbn("123").get().getTitle()).isEqualTo("Novo titulo");
+        verify(repository, times(3)).findById(1L); //Leitura, releitura no update e leitura depois do evict.
+        verify(repository, times(2)).findByIsbn("123");
+    }
+
+    @Test
+    @DisplayName("Deve invalidar o isbn antigo quando a atualização troca o isbn.")
+    public void evictPreviousIsbnOnUpdateTest(){
+        Book book = createBook();
+        Book changed = Book.builder().id(1L).isbn("456").author("Fulano").title("As aventuras").build();
+        when(repository.findById(1L)).thenReturn(Optional.of(book));
+        when(repository.findByIsbn("123")).thenReturn(Optional.of(book), Optional.empty());
+        when(repository.save(book)).thenReturn(book);
+
+        service.getBookByIsbn("123");
+        service.update(changed);
+
+        assertThat(cacheManager.getCache(CacheConfig.BOOKS_BY_ISBN).get("123")).isNull();
+        assertThat(service.getBookByIsbn("123")).isEmpty();
+        verify(repository, times(2)).findByIsbn("123");
+    }
+
+    @Test
+    @DisplayName("Deve invalidar o cache mesmo quando a atualização falha.")
+    public void evictOnFailedUpdateTest(){
+        Book book = createBook();
+        when(repository.findById(1L)).thenReturn(Optional.of(book));
+        when(repository.findByIsbn("123")).thenReturn(Optional.of(book));
+        when(repository.save(Mockito.any(Book.class))).thenThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L));
+
+        service.getBookByIsbn("123");
+        Book cached = service.getById(1L).get();
+        cached.setTitle("Novo titulo");
+        Throwable exception = catchThrowable(() -> service.update(cached));
+
+        assertThat(exception).isInstanceOf(ObjectOptimisticLockingFailureException.class);
+        assertThat(cacheManager.getCache(CacheConfig.BOOKS_BY_ID).get(1L)).isNull();
+        assertThat(cacheManager.getCache(CacheConfig.BOOKS_BY_ISBN).get("123")).isNull();
+    }
+
+    @Test
+    @DisplayName("Deve invalidar o cache ao deletar um livro.")
+    public void evictOnDeleteTest(){
+        Book book = createBook();
+        when(repository.findById(1L)).thenReturn(Optional.of(book), Optional.empty());
+        when(repository.findByIsbn("123")).thenReturn(Optional.of(book), Optional.empty());
+
+        service.getById(1L);
+        service.getBookByIsbn("123");
+        service.delete(book);
+
+        assertThat(service.getById(1L)).isEmpty();
+        assertThat(service.getBookByIsbn("123")).isEmpty();
+    }
+
+    private Book createBook() {
+        return Book.builder().id(1L).isbn("123").author("Fulano").title("As aventuras").build();
+    }
+}
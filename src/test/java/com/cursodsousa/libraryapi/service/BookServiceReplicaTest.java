@@ -0,0 +1,157 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.LibraryApiApplication;
+import com.cursodsousa.libraryapi.config.ReplicaRoutingDataSource;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.service.impl.BookSearchIndex;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.cursodsousa.libraryapi.model.repository.BookRepositoryTest.createNewBook;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Primário e réplica como dois bancos H2 em memória. Não há replicação entre eles: a réplica é migrada pelo
+ * teste e recebe um livro diferente, então o isbn devolvido mostra de qual banco veio a leitura.
+ */
+public class BookServiceReplicaTest {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:replica-primary;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL = "jdbc:h2:mem:replica-0;DB_CLOSE_DELAY=-1";
+
+    static ConfigurableApplicationContext context;
+    static JdbcTemplate replica;
+
+    @BeforeAll
+    public static void startApplication() {
+        Flyway.configure().dataSource(REPLICA_URL, "sa", "").load().migrate();
+        replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        context = new SpringApplicationBuilder(LibraryApiApplication.class)
+                .profiles("test")
+                .run("--spring.datasource.url=" + PRIMARY_URL,
+                        "--application.datasource.replicas=" + REPLICA_URL,
+                        "--application.datasource.replica.check-ms=3600000", //As verificações são chamadas pelo teste.
+                        "--server.port=0",
+                        "--spring.jmx.enabled=false",
+                        "--spring.boot.admin.client.enabled=false");
+    }
+
+    @AfterAll
+    public static void stopApplication() {
+        context.close();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        context.getBean(BookRepository.class).save(createNewBook("primario"));
+        replica.update(" insert into book (id, title, author, isbn, version, available) values (1000000, 'Replica', 'Autor', 'replica', 0, true) ");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        context.getBean(BookRepository.class).deleteAllInBatch();
+        replica.update(" delete from book ");
+    }
+
+    @Test
+    @DisplayName("Deve ler as listagens da réplica em dia e o resto do primário.")
+    public void readFromUpToDateReplicaTest() {
+        replicaBeat(new Timestamp(System.currentTimeMillis()));
+        routing().checkReplicas();
+
+        assertThat(routing().getHealthy()).containsExactly("replica-0");
+        assertThat(isbns(context.getBean(BookService.class).find(new Book(), PageRequest.of(0, 10)).getContent()))
+                .containsExactly("replica");
+        //Consultas fora dos serviços (transação readOnly do próprio repositório) continuam no primário.
+        assertThat(isbns(context.getBean(BookRepository.class).findAll())).containsExactly("primario");
+        assertThat(context.getBean(BookService.class).getBookByIsbn("primario")).isPresent();
+        assertThat(context.getBean(MeterRegistry.class).get("library.datasource.replica.lag")
+                .tag("replica", "replica-0").gauge().value()).isBetween(0d, 5000d);
+    }
+
+    @Test
+    @DisplayName("Não deve guardar nos caches o que veio da réplica nem reconstruir o índice de busca a partir dela.")
+    public void replicaReadsDoNotFeedCachesTest() {
+        replicaBeat(new Timestamp(System.currentTimeMillis()));
+        routing().checkReplicas();
+
+        assertThat(isbns(context.getBean(BookService.class).find(new Book(), PageRequest.of(0, 10)).getContent()))
+                .containsExactly("replica");
+        assertThat(context.getBean(EntityManagerFactory.class).getCache().contains(Book.class, 1000000L)).isFalse();
+
+        context.getBean(BookSearchIndex.class).rebuild();
+        assertThat(isbns(context.getBean(BookService.class).search("Replica Autor", PageRequest.of(0, 10)).getContent()))
+                .doesNotContain("replica");
+    }
+
+    @Test
+    @DisplayName("Deve voltar para o primário quando a réplica passar do atraso máximo.")
+    public void fallBackToPrimaryWhenReplicaLagsTest() {
+        replicaBeat(new Timestamp(System.currentTimeMillis() - 3_600_000));
+        routing().checkReplicas();
+
+        assertThat(routing().getHealthy()).isEmpty();
+        assertThat(routing().getLagMs().get("replica-0")).isGreaterThanOrEqualTo(3_600_000L);
+        assertThat(isbns(context.getBean(BookService.class).find(new Book(), PageRequest.of(0, 10)).getContent()))
+                .containsExactly("primario");
+    }
+
+    @Test
+    @DisplayName("Deve tirar do rodízio a réplica que recusa conexão e ler do primário.")
+    @SuppressWarnings("unchecked")
+    public void fallBackToPrimaryWhenReplicaIsDownTest() throws SQLException {
+        DataSource down = Mockito.spy(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(new DriverManagerDataSource(PRIMARY_URL, "sa", ""),
+                Collections.singletonMap("replica-0", down), 5000, Mockito.mock(ObjectProvider.class));
+        replicaBeat(new Timestamp(System.currentTimeMillis()));
+        routing.checkReplicas();
+        assertThat(routing.getHealthy()).containsExactly("replica-0");
+        Mockito.doThrow(new SQLException("replica fora do ar")).when(down).getConnection();
+
+        TransactionSynchronizationManager.setCurrentTransactionName(BookService.class.getName() + ".find");
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        try (Connection connection = routing.getConnection()) {
+            assertThat(connection.getMetaData().getURL()).isEqualTo("jdbc:h2:mem:replica-primary");
+        } finally {
+            TransactionSynchronizationManager.setCurrentTransactionName(null);
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        }
+        assertThat(routing.getHealthy()).isEmpty();
+    }
+
+    private static ReplicaRoutingDataSource routing() {
+        return context.getBean(ReplicaRoutingDataSource.class);
+    }
+
+    private static void replicaBeat(Timestamp beatAt) {
+        replica.update(" update replica_heartbeat set beat_at = ? where id = 1 ", beatAt);
+    }
+
+    private static List<String> isbns(List<Book> books) {
+        return books.stream().map(Book::getIsbn).collect(Collectors.toList());
+    }
+}
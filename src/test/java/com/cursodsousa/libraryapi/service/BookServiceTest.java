@@ -1,8 +1,10 @@
 package com.cursodsousa.libraryapi.service;
 
+import com.cursodsousa.libraryapi.config.CacheConfig;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Book;
 import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.service.impl.BookSearchIndex;
 import com.cursodsousa.libraryapi.service.impl.BookServiceImpl;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,14 +13,21 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -35,9 +44,15 @@ public class BookServiceTest { //Apenas testes unitários
     @MockBean
     BookRepository repository;
 
+    @MockBean
+    BookSearchIndex searchIndex;
+
+    ConcurrentMapCacheManager cacheManager;
+
     @BeforeEach
     public void setUp(){
-        this.service = new BookServiceImpl(repository);
+        this.cacheManager = new ConcurrentMapCacheManager();
+        this.service = new BookServiceImpl(repository, searchIndex, cacheManager);
     }
 
     @Test
@@ -59,6 +74,7 @@ public class BookServiceTest { //Apenas testes unitários
         assertThat(savedBook.getIsbn()).isEqualTo("123");
         assertThat(savedBook.getTitle()).isEqualTo("As aventuras");
         assertThat(savedBook.getAuthor()).isEqualTo("Fulano");
+        verify(searchIndex).index(savedBook);
     }
 
     private Book createValidBook(Book.BookBuilder builder) {
@@ -83,6 +99,32 @@ public class BookServiceTest { //Apenas testes unitários
         Mockito.verify(repository, Mockito.never()).save(book); //Nunca deve chamar o save(book).
     }
 
+    @Test
+    @DisplayName("POST - Deve salvar livros em lote verificando os isbns em uma única consulta.")
+    public void saveAllBooksTest(){
+        //arrange
+        Book first = Book.builder().isbn("123").author("Fulano").title("As aventuras").build();
+        Book duplicated = Book.builder().isbn("456").author("Fulano").title("Outras aventuras").build();
+        Book repeatedInBatch = Book.builder().isbn("123").author("Ciclano").title("Repetido").build();
+        when(repository.findExistingIsbns(Mockito.anyCollection())).thenReturn(Collections.singletonList("456"));
+
+        //act
+        List<BookBatchResult> results = service.saveAll(Arrays.asList(first, duplicated, repeatedInBatch));
+
+        //assert
+        assertThat(results).extracting(BookBatchResult::getIndex).containsExactly(0, 1, 2);
+        assertThat(results).extracting(BookBatchResult::getStatus).containsExactly(
+                BookBatchResult.Status.CREATED,
+                BookBatchResult.Status.REJECTED,
+                BookBatchResult.Status.REJECTED);
+        assertThat(results.get(1).getError()).isEqualTo("Isbn já cadastrado.");
+
+        verify(repository, times(1)).findExistingIsbns(Mockito.anyCollection());
+        verify(repository, times(1)).saveAll(Collections.singletonList(first));
+        verify(repository, never()).existsByIsbn(Mockito.anyString());
+        verify(searchIndex, times(1)).index(first);
+    }
+
     @Test
     @DisplayName("GET - Deve obter um livro por Id.")
     public void getByIdTest(){
@@ -129,6 +171,7 @@ public class BookServiceTest { //Apenas testes unitários
 
         //assert
         Mockito.verify(repository, Mockito.times(1)).delete(book);
+        Mockito.verify(searchIndex).remove(1L);
     }
 
     @Test
@@ -150,20 +193,39 @@ public class BookServiceTest { //Apenas testes unitários
         Long id = 1L;
 
         //arrange
-        Book updatingBook = Book.builder().id(id).build();
-        Book updatedBook = createValidBook(Book.builder());
-        updatedBook.setId(id);
+        Book updatingBook = createValidBook(Book.builder().id(id).available(true)); //Sem versão: PUT sem If-Match.
+        Book storedBook = Book.builder().id(id).title("Antigo").author("Antigo").isbn("123").available(false).version(2L).build();
 
-        when(repository.save(updatingBook)).thenReturn(updatedBook);
+        when(repository.findById(id)).thenReturn(Optional.of(storedBook));
+        when(repository.save(storedBook)).thenReturn(storedBook);
 
         //act
         Book book = service.update(updatingBook);
 
         //assert
-        assertThat(book.getId()).isEqualTo(updatedBook.getId());
-        assertThat(book.getTitle()).isEqualTo(updatedBook.getTitle());
-        assertThat(book.getIsbn()).isEqualTo(updatedBook.getIsbn());
-        assertThat(book.getAuthor()).isEqualTo(updatedBook.getAuthor());
+        assertThat(book).isSameAs(storedBook);
+        assertThat(book.getTitle()).isEqualTo(updatingBook.getTitle());
+        assertThat(book.getIsbn()).isEqualTo(updatingBook.getIsbn());
+        assertThat(book.getAuthor()).isEqualTo(updatingBook.getAuthor());
+        assertThat(book.getAvailable()).isFalse(); //Disponibilidade e versão continuam as do banco.
+        assertThat(book.getVersion()).isEqualTo(2L);
+        verify(repository, never()).save(updatingBook);
+        verify(searchIndex).index(storedBook);
+    }
+
+    @Test
+    @DisplayName("PUT - Não deve atualizar o livro quando a versão do If-Match não for mais a atual.")
+    public void updateStaleVersionBookTest(){
+        Long id = 1L;
+        Book updatingBook = createValidBook(Book.builder().id(id).version(1L));
+        Book storedBook = Book.builder().id(id).title("Antigo").author("Antigo").isbn("123").version(2L).build();
+        when(repository.findById(id)).thenReturn(Optional.of(storedBook));
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> service.update(updatingBook));
+
+        assertThat(storedBook.getTitle()).isEqualTo("Antigo");
+        verify(repository, never()).save(Mockito.any(Book.class));
+        verify(searchIndex, never()).index(Mockito.any(Book.class));
     }
 
     @Test
@@ -202,6 +264,22 @@ public class BookServiceTest { //Apenas testes unitários
         assertThat(result.getPageable().getPageSize()).isEqualTo(10);
     }
 
+    @Test
+    @DisplayName("FIND - Deve filtrar livros a partir de um cursor ordenando pelo id.")
+    public void findBookAfterTest(){
+        //arrange
+        Book filter = Book.builder().title("avent").build();
+        Slice<Book> slice = new SliceImpl<>(Arrays.asList(createValidBook(Book.builder().id(2L))));
+        when(repository.findSliceAfter(0L, "avent", null, null, null, PageRequest.of(0, 5, Sort.by("id"))))
+                .thenReturn(slice);
+
+        //act
+        Slice<Book> result = service.findAfter(filter, null, 5);
+
+        //assert
+        assertThat(result).isSameAs(slice);
+    }
+
     @Test
     @DisplayName("Deve obter um livro pelo isbn.")
     public void getBookByIsbnTest() {
@@ -223,4 +301,40 @@ public class BookServiceTest { //Apenas testes unitários
         verify(repository, times(1)).findByIsbn(isbn);
     }
 
+    @Test
+    @DisplayName("Deve mudar a disponibilidade do livro e tirá-lo dos caches.")
+    public void updateAvailabilityTest() {
+        Book book = createValidBook(Book.builder().id(1L).available(true));
+        when(repository.findById(1L)).thenReturn(Optional.of(book));
+        cacheManager.getCache(CacheConfig.BOOKS_BY_ID).put(1L, book);
+        cacheManager.getCache(CacheConfig.BOOKS_BY_ISBN).put(book.getIsbn(), book);
+
+        service.updateAvailability(Arrays.asList(1L, 1L), false);
+
+        assertThat(book.getAvailable()).isFalse();
+        assertThat(cacheManager.getCache(CacheConfig.BOOKS_BY_ID).get(1L)).isNull();
+        assertThat(cacheManager.getCache(CacheConfig.BOOKS_BY_ISBN).get(book.getIsbn())).isNull();
+        verify(repository, times(1)).findById(1L);
+        verify(searchIndex).index(book);
+    }
+
+    @Test
+    @DisplayName("Deve corrigir os livros cuja disponibilidade não bate com os empréstimos ativos.")
+    public void reconcileAvailabilityTest() {
+        Book loaned = createValidBook(Book.builder().id(1L).available(true));
+        Book returned = createValidBook(Book.builder().id(2L).isbn("456").available(false));
+        when(repository.findAvailableWithActiveLoan(Mockito.any(Pageable.class)))
+                .thenReturn(Collections.singletonList(loaned), Collections.emptyList());
+        when(repository.findUnavailableWithoutActiveLoan(Mockito.any(Pageable.class)))
+                .thenReturn(Collections.singletonList(returned), Collections.emptyList());
+        when(repository.markUnavailableIfLoaned(Collections.singletonList(1L))).thenReturn(1);
+        when(repository.markAvailableIfNotLoaned(Collections.singletonList(2L))).thenReturn(0); //Mudou antes do update.
+
+        int repaired = service.reconcileAvailability();
+
+        assertThat(repaired).isEqualTo(1);
+        verify(repository).findById(1L); //Relido para o índice de busca.
+        verify(repository).findById(2L);
+    }
+
 }
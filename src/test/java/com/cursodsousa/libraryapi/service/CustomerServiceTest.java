@@ -0,0 +1,63 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.entity.Customer;
+import com.cursodsousa.libraryapi.model.repository.CustomerRepository;
+import com.cursodsousa.libraryapi.service.impl.CustomerServiceImpl;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class CustomerServiceTest {
+
+    @Autowired
+    CustomerRepository repository;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    TestEntityManager entityManager;
+
+    @Test
+    @DisplayName("Deve criar o cliente na transação de quem chama.")
+    public void getOrCreateTest() {
+        CustomerService service = new CustomerServiceImpl(repository, jdbcTemplate);
+
+        Customer customer = service.getOrCreate("Fulano", "fulano@email.com");
+
+        assertThat(customer.getId()).isNotNull();
+        assertThat(customer.getEmail()).isEqualTo("fulano@email.com");
+        assertThat(service.getOrCreate("Fulano", "outro@email.com")).isEqualTo(customer);
+    }
+
+    @Test
+    @DisplayName("Deve reaproveitar o cliente criado ao mesmo tempo sem marcar a transação para rollback.")
+    public void getOrCreateConcurrentCustomerTest() {
+        jdbcTemplate.update(" insert into customer (name, email) values ('Fulano', null) "); //O outro empréstimo.
+        Customer existing = Customer.builder().id(2l).name("Fulano").build();
+        CustomerRepository staleRepository = mock(CustomerRepository.class);
+        when( staleRepository.findByName("Fulano") ).thenReturn( Optional.empty(), Optional.of(existing) );
+        CustomerService service = new CustomerServiceImpl(staleRepository, jdbcTemplate);
+
+        Customer customer = service.getOrCreate("Fulano", "fulano@email.com");
+
+        assertThat(customer).isEqualTo(existing);
+        assertThat(jdbcTemplate.queryForObject(" select count(*) from customer where name = 'Fulano' ", Long.class)).isEqualTo(1);
+        assertThat(entityManager.getEntityManager().getTransaction().getRollbackOnly()).isFalse();
+    }
+}
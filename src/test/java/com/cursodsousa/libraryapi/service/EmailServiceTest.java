@@ -0,0 +1,133 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.entity.MailDeadLetter;
+import com.cursodsousa.libraryapi.model.repository.MailDeadLetterRepository;
+import com.cursodsousa.libraryapi.service.impl.EmailServiceImpl;
+import com.cursodsousa.libraryapi.service.impl.MailDispatcher;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class EmailServiceTest {
+
+    GreenMail greenMail;
+    SimpleMeterRegistry meterRegistry;
+    JavaMailSenderImpl mailSender;
+    MailDeadLetterRepository deadLetterRepository;
+    MailDispatcher dispatcher;
+    EmailService service;
+
+    @BeforeEach
+    public void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP);
+        greenMail.start();
+
+        mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("localhost");
+        mailSender.setPort(ServerSetupTest.SMTP.getPort());
+        mailSender.setDefaultEncoding("UTF-8");
+
+        meterRegistry = new SimpleMeterRegistry();
+        deadLetterRepository = Mockito.mock(MailDeadLetterRepository.class);
+        dispatcher = new MailDispatcher(mailSender, meterRegistry, deadLetterRepository);
+        ReflectionTestUtils.setField(dispatcher, "queueCapacity", 100);
+        ReflectionTestUtils.setField(dispatcher, "workers", 2);
+        ReflectionTestUtils.setField(dispatcher, "batchSize", 10);
+        ReflectionTestUtils.setField(dispatcher, "maxAttempts", 2);
+        ReflectionTestUtils.setField(dispatcher, "backoffMs", 10L);
+        ReflectionTestUtils.setField(dispatcher, "offerTimeoutMs", 10L);
+        dispatcher.start();
+
+        service = new EmailServiceImpl(dispatcher);
+        ReflectionTestUtils.setField(service, "remetent", "mail@library-api.com");
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        dispatcher.stop();
+        greenMail.stop();
+    }
+
+    @Test
+    @DisplayName("Deve enviar um email por destinatário de forma assíncrona.")
+    public void sendMailsTest() throws Exception {
+        service.sendMails("atrasado", Arrays.asList("a@email.com", "b@email.com", "c@email.com"));
+
+        assertThat(greenMail.waitForIncomingEmail(5000, 3)).isTrue();
+        MimeMessage[] received = greenMail.getReceivedMessages();
+        assertThat(Arrays.stream(received).map(this::recipient).collect(Collectors.toList()))
+                .containsExactlyInAnyOrder("a@email.com", "b@email.com", "c@email.com");
+        assertThat(received[0].getSubject()).isEqualTo("Livro com espréstimo atrasado");
+    }
+
+    @Test
+    @DisplayName("Deve gravar como dead letter o email que falhar após todas as tentativas.")
+    public void deadLetterTest() throws Exception {
+        greenMail.stop();
+
+        service.sendMails("atrasado", Collections.singletonList("a@email.com"));
+
+        ArgumentCaptor<MailDeadLetter> deadLetter = ArgumentCaptor.forClass(MailDeadLetter.class);
+        Mockito.verify(deadLetterRepository, Mockito.timeout(5000)).save(deadLetter.capture());
+        assertThat(deadLetter.getValue().getRecipient()).isEqualTo("a@email.com");
+        assertThat(deadLetter.getValue().getBody()).isEqualTo("atrasado");
+        assertThat(deadLetter.getValue().getFailedAt()).isNotNull();
+        assertThat(meterRegistry.counter("library.mail.failures").count()).isEqualTo(2);
+        assertThat(meterRegistry.counter("library.mail.retries").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve recusar a lista inteira quando a fila não tiver vaga para todos os emails.")
+    public void queueFullTest() throws Exception {
+        dispatcher.stop();
+        ReflectionTestUtils.setField(dispatcher, "capacity", new Semaphore(1)); //Fila de uma vaga, sem workers.
+
+        Throwable exception = catchThrowable(
+                () -> service.sendMails("atrasado", Arrays.asList("a@email.com", "b@email.com")));
+        service.sendMails("atrasado", Collections.singletonList("c@email.com"));
+
+        assertThat(exception).isInstanceOf(IllegalStateException.class).hasMessage("Mail queue is full");
+        //Nada da lista recusada ficou na fila: quem chamou pode repetir o bloco sem duplicar envios.
+        assertThat(meterRegistry.get("library.mail.queue.size").gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.counter("library.mail.rejected").count()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve recusar na hora a lista maior que a capacidade da fila.")
+    public void listLargerThanQueueTest() {
+        ReflectionTestUtils.setField(dispatcher, "queueCapacity", 2);
+
+        Throwable exception = catchThrowable(
+                () -> service.sendMails("atrasado", Arrays.asList("a@email.com", "b@email.com", "c@email.com")));
+
+        assertThat(exception).isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Mail list of 3 messages exceeds the queue capacity of 2");
+        assertThat(meterRegistry.counter("library.mail.rejected").count()).isEqualTo(3);
+    }
+
+    private String recipient(MimeMessage message) {
+        try {
+            return message.getAllRecipients()[0].toString();
+        } catch (MessagingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
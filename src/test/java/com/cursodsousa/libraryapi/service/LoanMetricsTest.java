@@ -0,0 +1,72 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.service.impl.ClusterCoordinator;
+import com.cursodsousa.libraryapi.service.impl.LoanMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class LoanMetricsTest {
+
+    @MockBean
+    LoanRepository repository;
+
+    @MockBean
+    LoanService loanService;
+
+    @MockBean
+    ClusterCoordinator coordinator;
+
+    SimpleMeterRegistry meterRegistry;
+    LoanMetrics metrics;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metrics = new LoanMetrics(repository, loanService, coordinator, meterRegistry);
+        metrics.register();
+        when(loanService.getLateLoansDateLimit()).thenReturn(LocalDate.now());
+        when(repository.countActive()).thenReturn(5L);
+        when(repository.countLateLoans(Mockito.any(LocalDate.class))).thenReturn(2L);
+    }
+
+    @Test
+    @DisplayName("Deve contar os empréstimos só no nó que detém o lock das métricas.")
+    public void refreshOnLockHolderTest() {
+        when(coordinator.tryLock("loan-metrics")).thenReturn(true);
+
+        metrics.refresh();
+
+        assertThat(meterRegistry.get("library.loans.active").gauge().value()).isEqualTo(5.0);
+        assertThat(meterRegistry.get("library.loans.late").gauge().value()).isEqualTo(2.0);
+    }
+
+    @Test
+    @DisplayName("Não deve contar nem publicar valores nos outros nós.")
+    public void skipRefreshWithoutLockTest() {
+        when(coordinator.tryLock("loan-metrics")).thenReturn(true, false);
+
+        metrics.refresh();
+        metrics.refresh(); //Outro nó assumiu o lock.
+        metrics.release();
+
+        verify(repository, times(1)).countActive();
+        assertThat(meterRegistry.get("library.loans.active").gauge().value()).isNaN();
+        assertThat(meterRegistry.get("library.loans.late").gauge().value()).isNaN();
+        verify(coordinator, never()).unlock(Mockito.anyString());
+    }
+}
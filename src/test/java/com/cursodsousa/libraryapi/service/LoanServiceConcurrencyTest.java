@@ -0,0 +1,157 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.config.CacheConfig;
+import com.cursodsousa.libraryapi.exception.BusinessException;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.CustomerRepository;
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
+import com.cursodsousa.libraryapi.service.impl.BookSearchIndex;
+import com.cursodsousa.libraryapi.service.impl.BookServiceImpl;
+import com.cursodsousa.libraryapi.service.impl.CustomerServiceImpl;
+import com.cursodsousa.libraryapi.service.impl.LoanOutbox;
+import com.cursodsousa.libraryapi.service.impl.LoanPolicy;
+import com.cursodsousa.libraryapi.service.impl.LoanServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.cursodsousa.libraryapi.model.repository.BookRepositoryTest.createNewBook;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+@ActiveProfiles("test")
+@DataJpaTest
+@Import({LoanServiceImpl.class, BookServiceImpl.class, CustomerServiceImpl.class, LoanOutbox.class, LoanPolicy.class, CacheConfig.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED) //Cada thread precisa enxergar os dados já commitados.
+@Slf4j
+public class LoanServiceConcurrencyTest {
+
+    static final int BOOKS = 20;
+    static final int THREADS = 8;
+    static final int ATTEMPTS_PER_BOOK = 10;
+
+    @Autowired
+    LoanService service;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    CustomerRepository customerRepository;
+
+    @Autowired
+    OutboxEventRepository outboxRepository;
+
+    @MockBean
+    BookSearchIndex searchIndex;
+
+    @AfterEach
+    public void tearDown() {
+        outboxRepository.deleteAllInBatch();
+        loanRepository.deleteAllInBatch();
+        bookRepository.deleteAllInBatch();
+        customerRepository.deleteAllInBatch();
+    }
+
+    @Test
+    @DisplayName("Deve permitir apenas um empréstimo ativo por livro com vários pedidos simultâneos.")
+    public void concurrentSaveTest() throws Exception {
+        List<Book> books = IntStream.range(0, BOOKS)
+                .mapToObj(i -> bookRepository.save(createNewBook("isbn-" + i)))
+                .collect(Collectors.toList());
+
+        List<Callable<Void>> attempts = new ArrayList<>();
+        AtomicInteger saved = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < ATTEMPTS_PER_BOOK; i++) {
+            for (Book book : books) {
+                String customer = "Fulano " + i;
+                attempts.add(() -> {
+                    start.await();
+                    try {
+                        service.save(Loan.builder().book(book).customer(customer).loanDate(LocalDate.now()).build());
+                        saved.incrementAndGet();
+                    } catch (BusinessException e) {
+                        rejected.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = attempts.stream().map(executor::submit).collect(Collectors.toList());
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(30, TimeUnit.SECONDS); //Qualquer outra exceção falha o teste.
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+
+        log.info(" {} loan attempts on {} threads in {} ms ({} ops/s) ", attempts.size(), THREADS,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), attempts.size() * 1_000_000_000L / Math.max(elapsed, 1));
+
+        Map<Long, Long> activeLoansByBook = loanRepository.findAll().stream()
+                .collect(Collectors.groupingBy(Loan::getActiveBookId, Collectors.counting()));
+        assertThat(saved.get()).isEqualTo(BOOKS);
+        assertThat(rejected.get()).isEqualTo(BOOKS * (ATTEMPTS_PER_BOOK - 1));
+        assertThat(activeLoansByBook).hasSize(BOOKS).allSatisfy((bookId, count) -> assertThat(count).isEqualTo(1));
+        assertThat(bookRepository.findAll()).extracting(Book::getAvailable).containsOnly(false);
+        //O evento é gravado na transação do empréstimo: as tentativas recusadas não deixam evento.
+        assertThat(outboxRepository.findAll()).hasSize(BOOKS).extracting(OutboxEvent::getType).containsOnly(OutboxEvent.Type.LOAN_CREATED);
+    }
+
+    @Test
+    @DisplayName("Deve permitir um novo empréstimo do livro depois da devolução.")
+    public void saveAfterReturnTest() {
+        Book book = bookRepository.save(createNewBook("123"));
+        Loan loan = service.save(Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build());
+
+        assertThat(bookRepository.findById(book.getId()).get().getAvailable()).isFalse();
+        loan.setReturned(true);
+        service.update(loan);
+        assertThat(bookRepository.findById(book.getId()).get().getAvailable()).isTrue();
+        assertThat(bookRepository.findById(book.getId()).get().getVersion()).isEqualTo(book.getVersion()); //Empréstimo não muda a versão do livro.
+        Loan newLoan = service.save(Loan.builder().book(book).customer("Ciclano").loanDate(LocalDate.now()).build());
+
+        assertThat(newLoan.getId()).isNotNull();
+        assertThat(newLoan.getActiveBookId()).isEqualTo(book.getId());
+        assertThat(loanRepository.findById(loan.getId()).get().getActiveBookId()).isNull();
+        assertThat(outboxRepository.findByOrderById(PageRequest.of(0, 10))).extracting(OutboxEvent::getType, OutboxEvent::getLoanId)
+                .containsExactly(tuple(OutboxEvent.Type.LOAN_CREATED, loan.getId()),
+                        tuple(OutboxEvent.Type.LOAN_RETURNED, loan.getId()),
+                        tuple(OutboxEvent.Type.LOAN_CREATED, newLoan.getId()));
+    }
+}
@@ -2,24 +2,36 @@ package com.cursodsousa.libraryapi.service;
 
 import com.cursodsousa.libraryapi.api.dto.LoanFilterDTO;
 import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.Customer;
 import com.cursodsousa.libraryapi.exception.BusinessException;
 import com.cursodsousa.libraryapi.model.entity.Loan;
 import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.service.impl.LoanOutbox;
+import com.cursodsousa.libraryapi.service.impl.LoanPolicy;
 import com.cursodsousa.libraryapi.service.impl.LoanServiceImpl;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -36,9 +48,22 @@ public class LoanServiceTest {
     @MockBean
     LoanRepository repository;
 
+    @MockBean
+    BookService bookService;
+
+    @MockBean
+    CustomerService customerService;
+
+    @MockBean
+    LoanOutbox outbox;
+
+    @Captor
+    ArgumentCaptor<Collection<Long>> returnedIds;
+
     @BeforeEach
     public void setUp(){
-        this.service = new LoanServiceImpl(repository);
+        this.service = new LoanServiceImpl(repository, bookService, customerService, outbox, new LoanPolicy(4));
+        when(bookService.isAvailable(Mockito.anyLong())).thenReturn(true);
     }
 
     @Test
@@ -61,8 +86,7 @@ public class LoanServiceTest {
                 .book(book).build();
 
 
-        when( repository.existsByBookAndNotReturned(book) ).thenReturn(false);
-        when( repository.save(savingLoan) ).thenReturn( savedLoan );
+        when( repository.saveAndFlush(savingLoan) ).thenReturn( savedLoan );
 
         Loan loan = service.save(savingLoan);
 
@@ -70,6 +94,48 @@ public class LoanServiceTest {
         assertThat(loan.getBook().getId()).isEqualTo(savedLoan.getBook().getId());
         assertThat(loan.getCustomer()).isEqualTo(savedLoan.getCustomer());
         assertThat(loan.getLoanDate()).isEqualTo(savedLoan.getLoanDate());
+        verify(bookService).updateAvailability(Collections.singleton(1l), false);
+        verify(outbox).loanCreated(savedLoan);
+    }
+
+    @Test
+    @DisplayName("Deve gravar o vencimento pelo prazo do cliente, senão do livro, senão o padrão")
+    public void dueDatePolicyTest(){
+        LocalDate loanDate = LocalDate.of(2020, 1, 10);
+        Loan byDefault = createLoan();
+        byDefault.setLoanDate(loanDate);
+        Loan byBook = createLoan();
+        byBook.setLoanDate(loanDate);
+        byBook.getBook().setLoanDays(7);
+        Loan byCustomer = createLoan();
+        byCustomer.setLoanDate(loanDate);
+        byCustomer.getBook().setLoanDays(7);
+        byCustomer.setBorrower(Customer.builder().id(1l).name("Fulano").loanDays(15).build());
+        when( repository.saveAndFlush(Mockito.any(Loan.class)) ).then(invocation -> invocation.getArgument(0));
+
+        service.save(byDefault);
+        service.save(byBook);
+        service.save(byCustomer);
+
+        assertThat(byDefault.getDueDate()).isEqualTo(LocalDate.of(2020, 1, 14));
+        assertThat(byBook.getDueDate()).isEqualTo(LocalDate.of(2020, 1, 17));
+        assertThat(byCustomer.getDueDate()).isEqualTo(LocalDate.of(2020, 1, 25));
+    }
+
+    @Test
+    @DisplayName("Deve recusar o empréstimo de livro indisponível sem tentar o insert")
+    public void unavailableBookSaveTest(){
+        Loan savingLoan = createLoan(); //A cópia recebida diz disponível; vale o que está no banco.
+        when(bookService.isAvailable(1L)).thenReturn(false);
+
+        Throwable exception = catchThrowable(() -> service.save(savingLoan));
+
+        assertThat(exception)
+                .isInstanceOf(BusinessException.class)
+                .hasMessage("Book already loaned");
+        verify(repository, never()).saveAndFlush(savingLoan);
+        verify(bookService, never()).updateAvailability(Mockito.anyCollection(), Mockito.anyBoolean());
+        verify(outbox, never()).loanCreated(Mockito.any());
     }
 
     @Test
@@ -85,7 +151,8 @@ public class LoanServiceTest {
                         .loanDate(LocalDate.now())
                         .build();
 
-        when(repository.existsByBookAndNotReturned(book)).thenReturn(true);
+        when(repository.saveAndFlush(savingLoan)).thenThrow(new DataIntegrityViolationException("duplicate",
+                new ConstraintViolationException("duplicate", null, "PUBLIC.UK_LOAN_ACTIVE_BOOK_INDEX_2")));
 
         Throwable exception = catchThrowable(() -> service.save(savingLoan));
 
@@ -93,7 +160,20 @@ public class LoanServiceTest {
                 .isInstanceOf(BusinessException.class)
                 .hasMessage("Book already loaned");
 
-        verify(repository, never()).save(savingLoan);
+        verify(repository, never()).existsByBookAndNotReturned(book);
+    }
+
+    @Test
+    @DisplayName("Deve propagar violações de integridade que não sejam de livro já emprestado")
+    public void otherIntegrityViolationSaveTest(){
+        Loan savingLoan = createLoan();
+        DataIntegrityViolationException violation = new DataIntegrityViolationException("not null");
+
+        when(repository.saveAndFlush(savingLoan)).thenThrow(violation);
+
+        Throwable exception = catchThrowable(() -> service.save(savingLoan));
+
+        assertThat(exception).isSameAs(violation);
     }
 
     @Test
@@ -136,6 +216,8 @@ public class LoanServiceTest {
         //assert
         assertThat(updatedLoan.getReturned()).isTrue();
         verify(repository).save(loan);
+        verify(bookService).updateAvailability(Collections.singleton(1l), true); //Devolvido: o livro volta a ficar disponível.
+        verify(outbox).loanReturned(loan);
     }
 
     @Test
@@ -143,31 +225,151 @@ public class LoanServiceTest {
     public void findLoanTest(){
         //arrange
         LoanFilterDTO loanFilterDTO = LoanFilterDTO.builder().customer("Fulano").isbn("321").build();
-
-        Loan loan = createLoan();
-        loan.setId(1l);
+        Book book = Book.builder().id(1l).isbn("321").build();
+        Customer customer = Customer.builder().id(2l).name("Fulano").build();
+        when( bookService.getBookByIsbn("321") ).thenReturn( Optional.of(book) );
+        when( customerService.getByName("Fulano") ).thenReturn( Optional.of(customer) );
+
+        Loan byBook = loanWithId(1l);
+        Loan byBoth = loanWithId(2l);
+        Loan byCustomer = loanWithId(3l);
         PageRequest pageRequest = PageRequest.of(0, 10);
-        List<Loan> lista = Arrays.asList(loan);
+        PageRequest firstRows = PageRequest.of(0, 10, Sort.by("id"));
 
-        Page<Loan> page = new PageImpl<Loan>(lista, pageRequest, lista.size());
-        when( repository.findByBookIsbnOrCustomer(
-                Mockito.anyString(),
-                Mockito.anyString(),
-                Mockito.any(PageRequest.class))
-        )
-                .thenReturn(page);
+        when( repository.findByBook(book, firstRows) )
+                .thenReturn(new PageImpl<Loan>(Arrays.asList(byBook, byBoth), firstRows, 2));
+        when( repository.findByBorrower(customer, firstRows) )
+                .thenReturn(new PageImpl<Loan>(Arrays.asList(byBoth, byCustomer), firstRows, 2));
+        when( repository.countByBookAndBorrower(book, customer) ).thenReturn(1l);
 
         //act
         Page<Loan> result = service.find( loanFilterDTO, pageRequest );
 
 
         //assert
-        assertThat(result.getTotalElements()).isEqualTo(1);
-        assertThat(result.getContent()).isEqualTo(lista);
+        assertThat(result.getTotalElements()).isEqualTo(3);
+        assertThat(result.getContent()).containsExactly(byBook, byBoth, byCustomer);
         assertThat(result.getPageable().getPageNumber()).isEqualTo(0);
         assertThat(result.getPageable().getPageSize()).isEqualTo(10);
     }
 
+    @Test
+    @DisplayName("Deve juntar as páginas do livro e do cliente a partir do cursor, sem repetir empréstimos.")
+    public void findLoanAfterByBookOrCustomerTest(){
+        LoanFilterDTO loanFilterDTO = LoanFilterDTO.builder().customer("Fulano").isbn("321").build();
+        Book book = Book.builder().id(1l).isbn("321").build();
+        Customer customer = Customer.builder().id(2l).name("Fulano").build();
+        when( bookService.getBookByIsbn("321") ).thenReturn( Optional.of(book) );
+        when( customerService.getByName("Fulano") ).thenReturn( Optional.of(customer) );
+        PageRequest pageRequest = PageRequest.of(0, 2, Sort.by("id"));
+        when( repository.findSliceByBookAfter(5l, book, pageRequest) )
+                .thenReturn(new SliceImpl<Loan>(Arrays.asList(loanWithId(6l), loanWithId(8l)), pageRequest, false));
+        when( repository.findSliceByBorrowerAfter(5l, customer, pageRequest) )
+                .thenReturn(new SliceImpl<Loan>(Arrays.asList(loanWithId(7l), loanWithId(8l)), pageRequest, false));
+
+        Slice<Loan> slice = service.findAfter( loanFilterDTO, 5l, 2 );
+
+        assertThat(slice.getContent()).extracting(Loan::getId).containsExactly(6l, 7l);
+        assertThat(slice.hasNext()).isTrue(); //O 8 fica para a próxima página.
+    }
+
+    @Test
+    @DisplayName("Deve usar a consulta só do livro ou só do cliente conforme o filtro informado.")
+    public void findLoanBySingleFilterTest(){
+        Book book = Book.builder().id(1l).isbn("321").build();
+        Customer customer = Customer.builder().id(2l).name("Fulano").build();
+        when( bookService.getBookByIsbn("321") ).thenReturn( Optional.of(book) );
+        when( customerService.getByName("Fulano") ).thenReturn( Optional.of(customer) );
+        PageRequest pageRequest = PageRequest.of(0, 10);
+
+        service.find( LoanFilterDTO.builder().isbn("321").build(), pageRequest );
+        service.find( LoanFilterDTO.builder().customer("Fulano").isbn("999").build(), pageRequest ); //Livro inexistente.
+        service.findAfter( LoanFilterDTO.builder().customer("Fulano").build(), 5l, 20 );
+
+        verify(repository).findByBook(book, pageRequest);
+        verify(repository).findByBorrower(customer, pageRequest);
+        verify(repository).findSliceByBorrowerAfter(5l, customer, PageRequest.of(0, 20, Sort.by("id")));
+        verify(repository, never()).countByBookAndBorrower(any(), any());
+    }
+
+    @Test
+    @DisplayName("Deve retornar vazio sem consultar os empréstimos quando o filtro não acha livro nem cliente.")
+    public void findLoanWithoutMatchesTest(){
+        PageRequest pageRequest = PageRequest.of(0, 10);
+
+        Page<Loan> page = service.find( LoanFilterDTO.builder().customer("Ninguém").isbn("999").build(), pageRequest );
+        Slice<Loan> slice = service.findAfter( LoanFilterDTO.builder().build(), null, 20 );
+
+        assertThat(page.getContent()).isEmpty();
+        assertThat(slice.getContent()).isEmpty();
+        assertThat(slice.hasNext()).isFalse();
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    @DisplayName("Deve vincular o empréstimo ao cliente, criando-o na primeira vez.")
+    public void saveLoanCreatesCustomerTest(){
+        Loan savingLoan = createLoan();
+        savingLoan.setCustomerEmail("fulano@email.com");
+        Customer customer = Customer.builder().id(2l).name("Fulano").email("fulano@email.com").build();
+        when( customerService.getOrCreate("Fulano", "fulano@email.com") ).thenReturn( customer );
+        when( repository.saveAndFlush(savingLoan) ).thenReturn( savingLoan );
+
+        Loan loan = service.save(savingLoan);
+
+        assertThat(loan.getBorrower()).isEqualTo(customer);
+    }
+
+    @Test
+    @DisplayName("Deve devolver empréstimos em lote por id e por isbn com um único update cada.")
+    public void returnLoansTest() {
+        when(repository.findReturnedByIds(Mockito.anyCollection()))
+                .thenReturn(Arrays.asList(new Object[]{1L, false}, new Object[]{2L, true}));
+        when(repository.findActiveLoanIdsByIsbns(Mockito.anyCollection()))
+                .thenReturn(Collections.singletonList(new Object[]{"123", 5L}));
+        when(repository.findActiveByIdsForUpdate(Collections.singleton(1L))).thenReturn(Collections.singletonList(loanWithId(1L, 10L)));
+        when(repository.findActiveByIdsForUpdate(Collections.singleton(5L))).thenReturn(Collections.singletonList(loanWithId(5L, 50L)));
+
+        List<ReturnLoanResult> results = service.returnLoans(
+                Arrays.asList(1L, 2L, 3L, 1L), Arrays.asList("123", "456"));
+
+        assertThat(results).extracting(ReturnLoanResult::getStatus).containsExactly(
+                ReturnLoanResult.Status.RETURNED,
+                ReturnLoanResult.Status.ALREADY_RETURNED,
+                ReturnLoanResult.Status.NOT_FOUND,
+                ReturnLoanResult.Status.ALREADY_RETURNED,
+                ReturnLoanResult.Status.RETURNED,
+                ReturnLoanResult.Status.NOT_FOUND);
+        assertThat(results.get(4).getId()).isEqualTo(5L);
+        verify(repository, times(2)).markReturned(returnedIds.capture());
+        assertThat(returnedIds.getAllValues()).containsExactly(Collections.singleton(1L), Collections.singleton(5L));
+        verify(bookService).updateAvailability(Collections.singleton(10L), true);
+        verify(bookService).updateAvailability(Collections.singleton(50L), true);
+        verify(outbox).loansReturned(Collections.singletonMap(1L, 10L));
+        verify(outbox).loansReturned(Collections.singletonMap(5L, 50L));
+        verify(repository, never()).save(Mockito.any(Loan.class));
+    }
+
+    @Test
+    @DisplayName("Deve informar como já devolvido o empréstimo que outra devolução simultânea travou primeiro.")
+    public void returnLoansConcurrentReturnTest() {
+        when(repository.findReturnedByIds(Collections.singleton(1L)))
+                .thenReturn(Collections.singletonList(new Object[]{1L, false}));
+        when(repository.findActiveLoanIdsByIsbns(Collections.singleton("123")))
+                .thenReturn(Collections.singletonList(new Object[]{"123", 1L}));
+        when(repository.findActiveByIdsForUpdate(Collections.singleton(1L))).thenReturn(Collections.emptyList());
+
+        List<ReturnLoanResult> results = service.returnLoans(
+                Collections.singletonList(1L), Collections.singletonList("123"));
+
+        assertThat(results).extracting(ReturnLoanResult::getStatus).containsExactly(
+                ReturnLoanResult.Status.ALREADY_RETURNED,
+                ReturnLoanResult.Status.ALREADY_RETURNED);
+        verify(repository, never()).markReturned(Mockito.anyCollection());
+        verify(bookService, never()).updateAvailability(Mockito.anyCollection(), Mockito.anyBoolean());
+        verifyNoInteractions(outbox);
+    }
+
     public static Loan createLoan(){
         Book book = Book.builder().id(1l).build();
         String customer = "Fulano";
@@ -178,4 +380,16 @@ public class LoanServiceTest {
                 .loanDate(LocalDate.now())
                 .build();
     }
-}
\ No newline at end of file
+
+    private Loan loanWithId(Long id){
+        Loan loan = createLoan();
+        loan.setId(id);
+        return loan;
+    }
+
+    private Loan loanWithId(Long id, Long bookId){
+        Loan loan = loanWithId(id);
+        loan.setBook(Book.builder().id(bookId).build());
+        return loan;
+    }
+}
@@ -0,0 +1,77 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.config.MetricsAspect;
+import com.cursodsousa.libraryapi.exception.BusinessException;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.service.impl.BookSearchIndex;
+import com.cursodsousa.libraryapi.service.impl.BookServiceImpl;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class MetricsAspectTest {
+
+    @MockBean
+    BookRepository repository;
+
+    @MockBean
+    BookSearchIndex searchIndex;
+
+    SimpleMeterRegistry meterRegistry;
+    BookService service;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        AspectJProxyFactory factory = new AspectJProxyFactory(new BookServiceImpl(repository, searchIndex, new ConcurrentMapCacheManager()));
+        factory.setProxyTargetClass(true); //Como o Spring Boot cria os proxies dos serviços.
+        factory.addAspect(new MetricsAspect(meterRegistry));
+        service = factory.getProxy();
+    }
+
+    @Test
+    @DisplayName("Deve medir as chamadas ao serviço por classe, método e resultado.")
+    public void timeServiceCallTest() {
+        when(repository.findById(1L)).thenReturn(Optional.of(Book.builder().id(1L).build()));
+
+        service.getById(1L);
+        service.getById(1L);
+
+        Timer timer = meterRegistry.get(MetricsAspect.SERVICE_TIMER)
+                .tags("class", "BookServiceImpl", "method", "getById", "outcome", "success", "exception", "none")
+                .timer();
+        assertThat(timer.count()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve medir a chamada com erro de negócio e repassar a exceção.")
+    public void timeServiceBusinessErrorTest() {
+        when(repository.existsByIsbn(Mockito.anyString())).thenReturn(true);
+
+        Throwable exception = catchThrowable(() -> service.save(Book.builder().isbn("123").build()));
+
+        assertThat(exception).isInstanceOf(BusinessException.class);
+        Timer timer = meterRegistry.get(MetricsAspect.SERVICE_TIMER)
+                .tags("method", "save", "outcome", "business_error", "exception", "BusinessException")
+                .timer();
+        assertThat(timer.count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,111 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.entity.OutboxEvent;
+import com.cursodsousa.libraryapi.model.repository.OutboxEventRepository;
+import com.cursodsousa.libraryapi.service.impl.ClusterCoordinator;
+import com.cursodsousa.libraryapi.service.impl.InMemoryOutboxSink;
+import com.cursodsousa.libraryapi.service.impl.OutboxRelay;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class OutboxRelayTest {
+
+    static final int BATCH_SIZE = 2;
+
+    @MockBean
+    OutboxEventRepository repository;
+
+    @MockBean
+    ClusterCoordinator coordinator;
+
+    @MockBean
+    OutboxSink sink;
+
+    SimpleMeterRegistry meterRegistry;
+    OutboxRelay relay;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        relay = new OutboxRelay(repository, sink, coordinator, meterRegistry, BATCH_SIZE);
+        when(coordinator.tryLock(Mockito.anyString())).thenReturn(true);
+    }
+
+    @Test
+    @DisplayName("Deve publicar o outbox em lotes, na ordem, e apagar o que foi publicado.")
+    public void relayInBatchesTest() {
+        when(repository.findByOrderById(PageRequest.of(0, BATCH_SIZE)))
+                .thenReturn(events(1, 2), events(3));
+
+        relay.relay();
+
+        verify(sink).publish(events(1, 2));
+        verify(sink).publish(events(3));
+        verify(repository).deleteByIds(Arrays.asList(1L, 2L));
+        verify(repository).deleteByIds(Collections.singletonList(3L));
+        verify(repository, times(2)).findByOrderById(Mockito.any()); //Lote incompleto: não consulta de novo.
+        verify(coordinator).unlock("outbox-relay");
+        assertThat(meterRegistry.get("library.outbox.published").counter().count()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Deve manter os eventos no outbox quando o destino falhar.")
+    public void keepEventsWhenSinkFailsTest() {
+        when(repository.findByOrderById(Mockito.any())).thenReturn(events(1, 2));
+        doThrow(new IllegalStateException("broker fora do ar")).when(sink).publish(Mockito.anyList());
+
+        relay.relay();
+
+        verify(repository, never()).deleteByIds(Mockito.anyCollection());
+        verify(coordinator).unlock("outbox-relay");
+    }
+
+    @Test
+    @DisplayName("Não deve publicar quando outro nó estiver com o lock do outbox.")
+    public void skipWithoutLockTest() {
+        when(coordinator.tryLock("outbox-relay")).thenReturn(false);
+
+        relay.relay();
+
+        verify(repository, never()).findByOrderById(Mockito.any());
+        verify(sink, never()).publish(Mockito.anyList());
+    }
+
+    @Test
+    @DisplayName("Deve guardar no destino em memória só os eventos mais recentes.")
+    public void inMemorySinkCapacityTest() {
+        InMemoryOutboxSink memory = new InMemoryOutboxSink(2);
+
+        memory.publish(events(1, 2));
+        memory.publish(events(3));
+
+        assertThat(memory.getEvents()).extracting(OutboxEvent::getId).containsExactly(2L, 3L);
+    }
+
+    private static List<OutboxEvent> events(long... ids) {
+        return LongStream.of(ids)
+                .mapToObj(id -> OutboxEvent.builder().id(id).type(OutboxEvent.Type.LOAN_CREATED).loanId(id * 10)
+                        .occurredAt(LocalDateTime.of(2020, 1, 1, 0, 0)).build())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,100 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.service.impl.OverdueLoanTracker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class OverdueLoanTrackerTest {
+
+    @MockBean
+    LoanRepository repository;
+
+    OverdueLoanTracker tracker;
+    LocalDate today = LocalDate.now();
+
+    @BeforeEach
+    public void setUp() {
+        tracker = new OverdueLoanTracker(repository);
+    }
+
+    @Test
+    @DisplayName("Deve entregar só os empréstimos que vencem no dia, em blocos e em ordem de id.")
+    public void pollDueTest() {
+        when(repository.findActiveDueDates(today)).thenReturn(Arrays.asList(
+                row(5L, today), row(1L, today), row(3L, today), row(2L, today.plusDays(1))));
+        tracker.warmUp();
+
+        List<Long> first = tracker.pollDue(today, 2);
+        List<Long> second = tracker.pollDue(today, 2);
+        List<Long> third = tracker.pollDue(today, 2);
+        List<Long> tomorrow = tracker.pollDue(today.plusDays(1), 2);
+
+        assertThat(first).hasSize(2);
+        assertThat(second).hasSize(1);
+        assertThat(first).doesNotContainAnyElementsOf(second);
+        assertThat(third).isEmpty();
+        assertThat(tomorrow).containsExactly(2L);
+        assertThat(tracker.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve trazer os empréstimos recentes no refresh sem repetir os já entregues no dia.")
+    public void refreshTest() {
+        when(repository.findActiveDueDates(today)).thenReturn(Collections.singletonList(row(1L, today)));
+        tracker.warmUp();
+        assertThat(tracker.pollDue(today, 10)).containsExactly(1L);
+        when(repository.findActiveDueDatesLoanedSince(today, today.minusDays(1)))
+                .thenReturn(Arrays.asList(row(1L, today), row(2L, today), row(3L, today.plusDays(2))));
+
+        tracker.refresh();
+
+        assertThat(tracker.size()).isEqualTo(2);
+        assertThat(tracker.pollDue(today, 10)).containsExactly(2L);
+    }
+
+    @Test
+    @DisplayName("Deve descartar os vencimentos de dias anteriores, que ficam com o job da meia-noite.")
+    public void discardPastDueDatesTest() {
+        when(repository.findActiveDueDates(today)).thenReturn(Arrays.asList( //Lido antes da virada do dia.
+                row(1L, today.minusDays(1)), row(2L, today)));
+        tracker.warmUp();
+
+        assertThat(tracker.pollDue(today, 10)).containsExactly(2L);
+        assertThat(tracker.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Deve devolver ao tracker os ids de um envio que falhou, sem que o refresh os perca.")
+    public void requeueTest() {
+        when(repository.findActiveDueDates(today)).thenReturn(Arrays.asList(row(1L, today), row(2L, today)));
+        tracker.warmUp();
+        List<Long> failed = tracker.pollDue(today, 10);
+
+        tracker.requeue(today, failed);
+        when(repository.findActiveDueDatesLoanedSince(today, today.minusDays(1))).thenReturn(Collections.singletonList(row(1L, today)));
+        tracker.refresh();
+
+        assertThat(tracker.size()).isEqualTo(2);
+        assertThat(tracker.pollDue(today, 10)).containsExactly(1L, 2L);
+    }
+
+    private static Object[] row(Long id, LocalDate dueDate) {
+        return new Object[]{id, dueDate};
+    }
+}
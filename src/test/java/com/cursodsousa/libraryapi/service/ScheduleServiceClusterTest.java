@@ -0,0 +1,190 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.LibraryApiApplication;
+import com.cursodsousa.libraryapi.model.entity.Book;
+import com.cursodsousa.libraryapi.model.entity.JobCheckpoint;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.BookRepository;
+import com.cursodsousa.libraryapi.model.repository.JobCheckpointRepository;
+import com.cursodsousa.libraryapi.model.repository.LoanRepository;
+import com.cursodsousa.libraryapi.service.impl.ClusterCoordinator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static com.cursodsousa.libraryapi.model.repository.BookRepositoryTest.createNewBook;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Três contextos da aplicação, como três instâncias, no mesmo banco H2 em memória. O envio de emails
+ * é trocado por um que só registra os destinatários, compartilhado pelos nós.
+ */
+public class ScheduleServiceClusterTest {
+
+    static final int NODES = 3;
+    static final int LATE_LOANS = 30;
+
+    static final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    static final List<String> sentMails = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeAll
+    public static void startNodes() {
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(startNode("node-" + i));
+        }
+    }
+
+    @AfterAll
+    public static void stopNodes() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        sentMails.clear();
+        bean(0, JobCheckpointRepository.class).deleteAllInBatch();
+        bean(0, LoanRepository.class).deleteAllInBatch();
+        bean(0, BookRepository.class).deleteAllInBatch();
+    }
+
+    @Test
+    @DisplayName("Deve dividir o job de atrasados entre os nós vivos sem repetir emails.")
+    public void lateLoansSplitAcrossNodesTest() throws Exception {
+        List<Long> ids = createLateLoans();
+        ExecutorService executor = Executors.newFixedThreadPool(NODES);
+        try {
+            //O nó 0 dispara o cron; os outros ficam pegando partições como no claim-interval.
+            List<Future<?>> runs = new ArrayList<>();
+            runs.add(executor.submit(() -> bean(0, ScheduleService.class).sendMailToLateLoans()));
+            for (int i = 1; i < NODES; i++) {
+                int node = i;
+                runs.add(executor.submit(() -> {
+                    while (!allCompleted()) {
+                        bean(node, ScheduleService.class).resumeMailToLateLoans();
+                        Thread.sleep(10);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<JobCheckpoint> partitions = partitions();
+        assertThat(partitions).hasSize(NODES * 2); //partitions-per-node padrão.
+        assertThat(partitions).allMatch(JobCheckpoint::getCompleted);
+        assertThat(partitions.stream().map(JobCheckpoint::getOwner).distinct().count()).isGreaterThan(1);
+        assertThat(sentMails).doesNotHaveDuplicates()
+                .containsExactlyInAnyOrderElementsOf(ids.stream().map(id -> id + "@email.com").collect(Collectors.toList()));
+    }
+
+    @Test
+    @DisplayName("Deve assumir a partição de um nó que caiu depois que o lease dele vencer.")
+    public void takeOverExpiredPartitionTest() {
+        List<Long> ids = createLateLoans();
+        LocalDate dateLimit = bean(0, LoanService.class).getLateLoansDateLimit().minusDays(1); //Job da meia-noite: vencidos até ontem.
+        JobCheckpointRepository checkpointRepository = bean(0, JobCheckpointRepository.class);
+        int half = LATE_LOANS / 2;
+        //O nó que caiu tinha mandado os 5 primeiros da sua partição; o outro nó segue vivo com lease válido.
+        checkpointRepository.save(partition(dateLimit, 0, ids.get(0), ids.get(half - 1), ids.get(4),
+                "node-morto", LocalDateTime.now().minusSeconds(1)));
+        checkpointRepository.save(partition(dateLimit, 1, ids.get(half), ids.get(LATE_LOANS - 1), ids.get(half) - 1,
+                "node-vivo", LocalDateTime.now().plusMinutes(5)));
+
+        bean(1, ScheduleService.class).resumeMailToLateLoans();
+
+        assertThat(sentMails).containsExactlyInAnyOrderElementsOf(ids.subList(5, half).stream()
+                .map(id -> id + "@email.com").collect(Collectors.toList()));
+        JobCheckpoint taken = checkpointRepository.findById(ScheduleService.LATE_LOANS_JOB + ":0").get();
+        assertThat(taken.getOwner()).isEqualTo(bean(1, ClusterCoordinator.class).getNodeId());
+        assertThat(taken.getCompleted()).isTrue();
+        assertThat(checkpointRepository.findById(ScheduleService.LATE_LOANS_JOB + ":1").get().getCompleted()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Deve contar os nós vivos pelo heartbeat.")
+    public void liveNodesTest() {
+        assertThat(bean(0, ClusterCoordinator.class).liveNodes()).isEqualTo(NODES);
+    }
+
+    private static ConfigurableApplicationContext startNode(String nodeId) {
+        return new SpringApplicationBuilder(LibraryApiApplication.class)
+                .profiles("test")
+                .initializers(context -> ((GenericApplicationContext) context).registerBean("recordingEmailService",
+                        EmailService.class, () -> ScheduleServiceClusterTest::record, definition -> definition.setPrimary(true)))
+                .run("--spring.datasource.url=jdbc:h2:mem:cluster;DB_CLOSE_DELAY=-1",
+                        "--server.port=0",
+                        "--spring.jmx.enabled=false",
+                        "--spring.boot.admin.client.enabled=false",
+                        "--application.scheduler.node-id=" + nodeId,
+                        "--application.scheduler.claim-interval-ms=3600000",
+                        "--application.mail.lateloans.chunk-size=2");
+    }
+
+    private static void record(String message, List<String> mails) {
+        try {
+            Thread.sleep(20); //Um envio de verdade demora; dá tempo de os outros nós pegarem partições.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sentMails.addAll(mails);
+    }
+
+    private static <T> T bean(int node, Class<T> type) {
+        return nodes.get(node).getBean(type);
+    }
+
+    private List<Long> createLateLoans() {
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < LATE_LOANS; i++) {
+            books.add(createNewBook("isbn-" + i));
+        }
+        List<Loan> loans = new ArrayList<>();
+        for (Book book : bean(0, BookRepository.class).saveAll(books)) {
+            loans.add(Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now().minusDays(10)).build());
+        }
+        List<Long> ids = new ArrayList<>();
+        for (Loan loan : bean(0, LoanRepository.class).saveAll(loans)) {
+            loan.setCustomerEmail(loan.getId() + "@email.com");
+            ids.add(loan.getId());
+        }
+        bean(0, LoanRepository.class).saveAll(loans);
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private JobCheckpoint partition(LocalDate dateLimit, int number, Long firstId, Long endId, Long lastId,
+                                    String owner, LocalDateTime leaseUntil) {
+        return JobCheckpoint.builder().name(ScheduleService.LATE_LOANS_JOB + ":" + number).job(ScheduleService.LATE_LOANS_JOB)
+                .referenceDate(dateLimit).firstId(firstId).endId(endId).lastId(lastId).completed(false)
+                .owner(owner).leaseUntil(leaseUntil).build();
+    }
+
+    private List<JobCheckpoint> partitions() {
+        return bean(0, JobCheckpointRepository.class).findByJobAndReferenceDateOrderByFirstId(
+                ScheduleService.LATE_LOANS_JOB, bean(0, LoanService.class).getLateLoansDateLimit().minusDays(1));
+    }
+
+    private boolean allCompleted() {
+        List<JobCheckpoint> partitions = partitions();
+        return !partitions.isEmpty() && partitions.stream().allMatch(JobCheckpoint::getCompleted);
+    }
+}
@@ -0,0 +1,292 @@
+package com.cursodsousa.libraryapi.service;
+
+import com.cursodsousa.libraryapi.model.entity.JobCheckpoint;
+import com.cursodsousa.libraryapi.model.entity.Loan;
+import com.cursodsousa.libraryapi.model.repository.JobCheckpointRepository;
+import com.cursodsousa.libraryapi.service.impl.ClusterCoordinator;
+import com.cursodsousa.libraryapi.service.impl.OverdueLoanTracker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class ScheduleServiceTest {
+
+    ScheduleService service;
+    SimpleMeterRegistry meterRegistry;
+
+    @MockBean
+    LoanService loanService;
+
+    @MockBean
+    EmailService emailService;
+
+    @MockBean
+    JobCheckpointRepository checkpointRepository;
+
+    @MockBean
+    BookService bookService;
+
+    @MockBean
+    ClusterCoordinator coordinator;
+
+    @MockBean
+    OverdueLoanTracker overdueTracker;
+
+    LocalDate today = LocalDate.now();
+    LocalDate dateLimit = today.minusDays(1); //O job da meia-noite cobre os vencidos até ontem.
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        service = new ScheduleService(loanService, emailService, checkpointRepository, meterRegistry, bookService, coordinator, overdueTracker);
+        ReflectionTestUtils.setField(service, "message", "atrasado");
+        ReflectionTestUtils.setField(service, "chunkSize", 2);
+        ReflectionTestUtils.setField(service, "partitionsPerNode", 2);
+        when(loanService.getLateLoansDateLimit()).thenReturn(today);
+        when(coordinator.claim(anyString())).thenReturn(true);
+        when(coordinator.progress(anyString(), anyLong(), anyBoolean())).thenReturn(true);
+    }
+
+    @Test
+    @DisplayName("Deve dividir o job em partições e enviar os emails em blocos salvando o progresso a cada bloco.")
+    public void sendMailToLateLoansInChunksTest() {
+        JobCheckpoint partition = partition(0L);
+        when(checkpointRepository.findByJobAndReferenceDateOrderByFirstId(ScheduleService.LATE_LOANS_JOB, dateLimit))
+                .thenReturn(Collections.emptyList(), Collections.emptyList(), Collections.singletonList(partition));
+        when(coordinator.tryLock(ScheduleService.LATE_LOANS_JOB)).thenReturn(true);
+        when(coordinator.liveNodes()).thenReturn(1);
+        when(loanService.getLateLoanIdRange(dateLimit)).thenReturn(new Long[]{1L, 3L});
+        when(checkpointRepository.findById(partition.getName())).thenReturn(Optional.of(partition));
+        when(loanService.getLateLoans(dateLimit, 0L, 3L, 2)).thenReturn(Arrays.asList(loan(1L), loan(2L)));
+        when(loanService.getLateLoans(dateLimit, 2L, 3L, 2)).thenReturn(Collections.singletonList(loan(3L)));
+
+        service.sendMailToLateLoans();
+
+        ArgumentCaptor<List<JobCheckpoint>> captor = ArgumentCaptor.forClass(List.class);
+        verify(checkpointRepository).saveAll(captor.capture());
+        assertThat(captor.getValue()).hasSize(2);
+        verify(checkpointRepository).deleteBefore(ScheduleService.LATE_LOANS_JOB, dateLimit);
+        verify(coordinator).unlock(ScheduleService.LATE_LOANS_JOB);
+        verify(emailService).sendMails("atrasado", Arrays.asList("1@email.com", "2@email.com"));
+        verify(emailService).sendMails("atrasado", Collections.singletonList("3@email.com"));
+        InOrder inOrder = inOrder(coordinator);
+        inOrder.verify(coordinator).progress(partition.getName(), 2L, false);
+        inOrder.verify(coordinator).progress(partition.getName(), 3L, false);
+        inOrder.verify(coordinator).progress(partition.getName(), 3L, true);
+        assertThat(meterRegistry.counter("library.lateloans.job.chunks").count()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Não deve planejar o job quando outro nó tem o lock ou já o planejou.")
+    public void notPlanMailToLateLoansTest() {
+        when(checkpointRepository.findByJobAndReferenceDateOrderByFirstId(ScheduleService.LATE_LOANS_JOB, dateLimit))
+                .thenReturn(Collections.emptyList());
+        when(coordinator.tryLock(ScheduleService.LATE_LOANS_JOB)).thenReturn(false);
+
+        service.sendMailToLateLoans();
+
+        verify(checkpointRepository, never()).saveAll(any());
+        verify(coordinator, never()).unlock(any());
+        verifyNoInteractions(emailService);
+    }
+
+    @Test
+    @DisplayName("Deve avisar os empréstimos que vencem hoje a partir do tracker, ignorando os já devolvidos.")
+    public void sendMailToNewlyLateLoansTest() {
+        when(coordinator.tryLock(ScheduleService.NEWLY_LATE_LOANS_JOB)).thenReturn(true);
+        when(overdueTracker.pollDue(today, 2)).thenReturn(Arrays.asList(1L, 2L), Collections.singletonList(3L));
+        when(loanService.claimReminders(Arrays.asList(1L, 2L), today)).thenReturn(Arrays.asList(loan(1L), loan(2L)));
+        when(loanService.claimReminders(Collections.singletonList(3L), today)).thenReturn(Collections.emptyList()); //Já avisado em outro nó.
+
+        service.sendMailToNewlyLateLoans();
+
+        verify(emailService).sendMails("atrasado", Arrays.asList("1@email.com", "2@email.com"));
+        verifyNoMoreInteractions(emailService);
+        verify(overdueTracker, times(2)).pollDue(today, 2);
+        verify(coordinator).unlock(ScheduleService.NEWLY_LATE_LOANS_JOB);
+        verify(loanService, never()).getLateLoans(any(), any(), any(), anyInt()); //Nada de consulta por data em loan.
+        verify(loanService, never()).releaseReminders(any(), any());
+        verify(overdueTracker, never()).requeue(any(), any());
+        assertThat(meterRegistry.counter("library.lateloans.newly.mails").count()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Deve desfazer o claim e devolver os ids ao tracker quando o envio falha.")
+    public void sendMailToNewlyLateLoansFailureTest() {
+        when(coordinator.tryLock(ScheduleService.NEWLY_LATE_LOANS_JOB)).thenReturn(true);
+        when(overdueTracker.pollDue(today, 2)).thenReturn(Arrays.asList(1L, 2L));
+        when(loanService.claimReminders(Arrays.asList(1L, 2L), today)).thenReturn(Collections.singletonList(loan(2L)));
+        doThrow(new IllegalStateException("fila cheia")).when(emailService).sendMails(anyString(), anyList());
+
+        service.sendMailToNewlyLateLoans();
+
+        verify(overdueTracker).requeue(today, Arrays.asList(1L, 2L));
+        verify(loanService).releaseReminders(Collections.singletonList(2L), today);
+        verify(coordinator).unlock(ScheduleService.NEWLY_LATE_LOANS_JOB);
+        assertThat(meterRegistry.counter("library.lateloans.newly.failures").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("library.lateloans.newly.mails").count()).isZero();
+    }
+
+    @Test
+    @DisplayName("Não deve avisar os que vencem hoje quando outro nó tem o lock.")
+    public void notSendMailToNewlyLateLoansWithoutLockTest() {
+        when(coordinator.tryLock(ScheduleService.NEWLY_LATE_LOANS_JOB)).thenReturn(false);
+
+        service.sendMailToNewlyLateLoans();
+
+        verifyNoInteractions(overdueTracker, emailService);
+        verify(coordinator, never()).unlock(any());
+    }
+
+    @Test
+    @DisplayName("Deve retomar a partição a partir do último empréstimo processado.")
+    public void resumeMailToLateLoansTest() {
+        JobCheckpoint partition = partition(2L);
+        when(checkpointRepository.findByJobAndReferenceDateOrderByFirstId(ScheduleService.LATE_LOANS_JOB, dateLimit))
+                .thenReturn(Collections.singletonList(partition));
+        when(checkpointRepository.findById(partition.getName())).thenReturn(Optional.of(partition));
+        when(loanService.getLateLoans(dateLimit, 2L, 3L, 2)).thenReturn(Collections.singletonList(loan(3L)));
+
+        service.resumeMailToLateLoans();
+
+        verify(loanService, never()).getLateLoans(dateLimit, 0L, 3L, 2);
+        verify(emailService).sendMails("atrasado", Collections.singletonList("3@email.com"));
+        verify(coordinator).progress(partition.getName(), 3L, true);
+        verify(coordinator, never()).tryLock(any());
+    }
+
+    @Test
+    @DisplayName("Não deve processar partições concluídas ou com lease de outro nó.")
+    public void notResumeCompletedOrClaimedPartitionsTest() {
+        JobCheckpoint completed = partition(3L);
+        completed.setCompleted(true);
+        JobCheckpoint claimed = partition(0L);
+        claimed.setName(ScheduleService.LATE_LOANS_JOB + ":outra");
+        when(checkpointRepository.findByJobAndReferenceDateOrderByFirstId(ScheduleService.LATE_LOANS_JOB, dateLimit))
+                .thenReturn(Arrays.asList(completed, claimed));
+        when(coordinator.claim(claimed.getName())).thenReturn(false);
+
+        service.resumeMailToLateLoans();
+
+        verify(coordinator, never()).claim(completed.getName());
+        verify(loanService, never()).getLateLoans(any(), any(), any(), anyInt());
+        verifyNoInteractions(emailService);
+    }
+
+    @Test
+    @DisplayName("Deve parar a partição quando o lease for perdido para outro nó.")
+    public void lostLeaseMailToLateLoansTest() {
+        JobCheckpoint partition = partition(0L);
+        when(checkpointRepository.findByJobAndReferenceDateOrderByFirstId(ScheduleService.LATE_LOANS_JOB, dateLimit))
+                .thenReturn(Collections.singletonList(partition));
+        when(checkpointRepository.findById(partition.getName())).thenReturn(Optional.of(partition));
+        when(loanService.getLateLoans(dateLimit, 0L, 3L, 2)).thenReturn(Arrays.asList(loan(1L), loan(2L)));
+        when(coordinator.progress(partition.getName(), 2L, false)).thenReturn(false);
+
+        service.resumeMailToLateLoans();
+
+        verify(loanService, never()).getLateLoans(dateLimit, 2L, 3L, 2);
+        verify(coordinator, never()).progress(any(), any(), eq(true));
+        assertThat(meterRegistry.timer("library.lateloans.job.duration", "outcome", "lost").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Deve manter a partição pendente quando o primeiro bloco falhar e retomá-la depois.")
+    public void failedMailToLateLoansTest() {
+        JobCheckpoint partition = partition(0L);
+        when(checkpointRepository.findByJobAndReferenceDateOrderByFirstId(ScheduleService.LATE_LOANS_JOB, dateLimit))
+                .thenReturn(Collections.emptyList(), Collections.emptyList(), Collections.singletonList(partition));
+        when(coordinator.tryLock(ScheduleService.LATE_LOANS_JOB)).thenReturn(true);
+        when(coordinator.liveNodes()).thenReturn(1);
+        when(loanService.getLateLoanIdRange(dateLimit)).thenReturn(new Long[]{1L, 3L});
+        when(checkpointRepository.findById(partition.getName())).thenReturn(Optional.of(partition));
+        when(loanService.getLateLoans(dateLimit, 0L, 3L, 2)).thenReturn(Arrays.asList(loan(1L), loan(2L)));
+        when(loanService.getLateLoans(dateLimit, 2L, 3L, 2)).thenReturn(Collections.singletonList(loan(3L)));
+        doThrow(new RuntimeException("smtp fora do ar")).doNothing().when(emailService).sendMails(any(), any());
+
+        service.sendMailToLateLoans();
+
+        //O checkpoint já existe, pendente, antes do primeiro bloco: a falha não apaga o job do dia.
+        ArgumentCaptor<List<JobCheckpoint>> captor = ArgumentCaptor.forClass(List.class);
+        InOrder inOrder = inOrder(checkpointRepository, emailService);
+        inOrder.verify(checkpointRepository).saveAll(captor.capture());
+        inOrder.verify(emailService).sendMails("atrasado", Arrays.asList("1@email.com", "2@email.com"));
+        assertThat(captor.getValue()).noneMatch(JobCheckpoint::getCompleted);
+        verify(coordinator, never()).progress(any(), any(), anyBoolean());
+        assertThat(meterRegistry.counter("library.lateloans.job.failures").count()).isEqualTo(1);
+        assertThat(meterRegistry.timer("library.lateloans.job.duration", "outcome", "failure").count()).isEqualTo(1);
+
+        service.resumeMailToLateLoans();
+
+        verify(emailService, times(2)).sendMails("atrasado", Arrays.asList("1@email.com", "2@email.com"));
+        verify(emailService).sendMails("atrasado", Collections.singletonList("3@email.com"));
+        verify(coordinator).progress(partition.getName(), 3L, true);
+    }
+
+    @Test
+    @DisplayName("Deve dividir a faixa de ids dos atrasados pelos nós vivos.")
+    public void splitLateLoansTest() {
+        List<JobCheckpoint> partitions = service.split(dateLimit, new Long[]{1L, 10L}, 2);
+        List<JobCheckpoint> empty = service.split(dateLimit, new Long[]{null, null}, 2);
+
+        assertThat(partitions).extracting(JobCheckpoint::getFirstId).containsExactly(1L, 4L, 7L, 10L);
+        assertThat(partitions).extracting(JobCheckpoint::getEndId).containsExactly(3L, 6L, 9L, 10L);
+        assertThat(partitions).extracting(JobCheckpoint::getLastId).containsExactly(0L, 3L, 6L, 9L);
+        assertThat(partitions).extracting(JobCheckpoint::getName).doesNotHaveDuplicates();
+        assertThat(empty).hasSize(1);
+        assertThat(empty.get(0).getCompleted()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Deve reconciliar a disponibilidade dos livros e contar os corrigidos.")
+    public void reconcileBookAvailabilityTest() {
+        when(bookService.reconcileAvailability()).thenReturn(3);
+
+        service.reconcileBookAvailability();
+
+        verify(bookService).reconcileAvailability();
+        assertThat(meterRegistry.counter("library.books.availability.repaired").count()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Não deve iniciar quando o bloco do job de atrasados não cabe na fila de emails.")
+    public void chunkLargerThanMailQueueTest() {
+        ReflectionTestUtils.setField(service, "chunkSize", 500);
+        ReflectionTestUtils.setField(service, "mailQueueCapacity", 100);
+
+        Throwable exception = catchThrowable(service::checkChunkSize);
+
+        assertThat(exception).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("chunk-size (500)");
+    }
+
+    private JobCheckpoint partition(Long lastId) {
+        return JobCheckpoint.builder().name(ScheduleService.LATE_LOANS_JOB + ":" + dateLimit + ":0")
+                .job(ScheduleService.LATE_LOANS_JOB).referenceDate(dateLimit)
+                .firstId(1L).endId(3L).lastId(lastId).completed(false).build();
+    }
+
+    private Loan loan(Long id) {
+        return Loan.builder().id(id).customer("Fulano").customerEmail(id + "@email.com").build();
+    }
+}